@@ -0,0 +1,25 @@
+package org.ccrew.cchess.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+public final class BenchmarkRunner {
+
+    private BenchmarkRunner() {
+    }
+
+    /*
+     * Takes the usual JMH command line, but always adds the GC profiler so every
+     * benchmark reports the bytes allocated per operation (gc.alloc.rate.norm)
+     * next to its throughput.
+     */
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        var options = new OptionsBuilder().parent(new CommandLineOptions(args)).addProfiler(GCProfiler.class).build();
+        new Runner(options).run();
+    }
+
+}
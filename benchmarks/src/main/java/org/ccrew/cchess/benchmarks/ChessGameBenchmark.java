@@ -0,0 +1,45 @@
+package org.ccrew.cchess.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.ccrew.cchess.lib.ChessGame;
+import org.ccrew.cchess.lib.PGNError;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChessGameBenchmark {
+
+    private static final int GAMES = 64;
+
+    private List<String[]> games;
+    private int next;
+
+    @Setup
+    public void setup() {
+        games = Fixtures.generateGames(GAMES);
+    }
+
+    /* Replay one whole game from SAN, as done when loading a PGN game */
+    @Benchmark
+    public ChessGame replay() throws PGNError {
+        var moves = games.get(next);
+        next = (next + 1) % GAMES;
+        return new ChessGame(ChessGame.STANDARD_SETUP, moves);
+    }
+
+}
@@ -0,0 +1,114 @@
+package org.ccrew.cchess.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.ccrew.cchess.lib.ChessState;
+import org.ccrew.cchess.lib.PackedMove;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChessStateBenchmark {
+
+    @Param({ "opening", "middlegame", "endgame" })
+    public String position;
+
+    private String fen;
+    private ChessState state;
+    private ChessState target;
+    private byte[] fenBuffer = new byte[ChessState.MAX_FEN_LENGTH];
+    private int[] moves = new int[ChessState.MAX_MOVES];
+    private int[] buffer = new int[ChessState.MAX_MOVES];
+    private int count;
+    private String[] sans;
+    private int next;
+
+    @Setup
+    public void setup() {
+        fen = Fixtures.getFen(position);
+        state = new ChessState(fen);
+        target = new ChessState(fen);
+        count = state.getLegalMoves(moves);
+        sans = new String[count];
+        for (var i = 0; i < count; i++) {
+            var copy = state.clone();
+            copy.move(moves[i]);
+            sans[i] = copy.lastMove.getSan();
+        }
+    }
+
+    @Benchmark
+    public ChessState parseFen() {
+        return new ChessState(fen);
+    }
+
+    /* Parse into the same state every time */
+    @Benchmark
+    public ChessState setFen() {
+        target.setFen(fen);
+        return target;
+    }
+
+    @Benchmark
+    public String getFen() {
+        return state.getFen();
+    }
+
+    @Benchmark
+    public int writeFen() {
+        return state.writeFen(fenBuffer, 0);
+    }
+
+    @Benchmark
+    public int getLegalMoves() {
+        return state.getLegalMoves(buffer);
+    }
+
+    /* Every legal move tried without being applied, as done when validating input */
+    @Benchmark
+    public void tryMoves(Blackhole blackhole) {
+        for (var i = 0; i < count; i++) {
+            var start = PackedMove.getStart(moves[i]);
+            var end = PackedMove.getEnd(moves[i]);
+            blackhole.consume(state.moveWithCoords(state.currentPlayer, ChessState.getRank(start),
+                    ChessState.getFile(start), ChessState.getRank(end), ChessState.getFile(end), false));
+        }
+    }
+
+    /* Every legal move found from its SAN, as done when replaying imported games */
+    @Benchmark
+    public void decodeSan(Blackhole blackhole) {
+        for (var i = 0; i < count; i++) {
+            blackhole.consume(state.decodeSan(sans[i]));
+        }
+    }
+
+    /* One legal move applied to a copy of the position, including the SAN bookkeeping */
+    @Benchmark
+    public ChessState applyMove() {
+        var copy = state.clone();
+        var move = moves[next];
+        next = (next + 1) % count;
+        var start = PackedMove.getStart(move);
+        var end = PackedMove.getEnd(move);
+        copy.moveWithCoords(copy.currentPlayer, ChessState.getRank(start), ChessState.getFile(start),
+                ChessState.getRank(end), ChessState.getFile(end));
+        return copy;
+    }
+
+}
@@ -0,0 +1,125 @@
+package org.ccrew.cchess.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import org.ccrew.cchess.lib.ChessGame;
+import org.ccrew.cchess.lib.ChessResult;
+import org.ccrew.cchess.lib.ChessRule;
+import org.ccrew.cchess.lib.ChessState;
+import org.ccrew.cchess.lib.PGNGame;
+import org.ccrew.cchess.util.Out;
+
+public final class Fixtures {
+
+    private Fixtures() {
+    }
+
+    /* Sicilian after 4...Nf6 */
+    public static final String OPENING = "rnbqkb1r/pp2pppp/3p1n2/8/3NP3/8/PPP2PPP/RNBQKB1R w KQkq - 1 5";
+
+    /* "Kiwipete", full of captures, pins and castling */
+    public static final String MIDDLEGAME = "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1";
+
+    /* Rook and pawns, from the perft suite */
+    public static final String ENDGAME = "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1";
+
+    private static final int MAX_PLIES = 240;
+
+    private static final long SEED = 0x5eed;
+
+    public static String getFen(String position) {
+        switch (position) {
+            case "opening":
+                return OPENING;
+            case "middlegame":
+                return MIDDLEGAME;
+            case "endgame":
+                return ENDGAME;
+            default:
+                throw new IllegalArgumentException(String.format("Unknown position %s", position));
+        }
+    }
+
+    /* SAN moves of count random games, always the same for the same count */
+    public static List<String[]> generateGames(int count) {
+        var random = new SplittableRandom(SEED);
+        var games = new ArrayList<String[]>(count);
+        for (var i = 0; i < count; i++) {
+            games.add(generateGame(random));
+        }
+        return games;
+    }
+
+    /*
+     * A PGN file of at least size characters made of random legal games, so the
+     * parser sees realistic movetext without shipping a database with the sources
+     */
+    public static String generatePGN(int size) {
+        var random = new SplittableRandom(SEED);
+        var builder = new StringBuilder(size + size / 8);
+        for (var i = 1; builder.length() < size; i++) {
+            var moves = generateGame(random);
+            var result = getResult(moves);
+
+            appendTag(builder, "Event", "Benchmark");
+            appendTag(builder, "Site", "cchess-lib");
+            appendTag(builder, "Date", "2020.01.01");
+            appendTag(builder, "Round", Integer.toString(i));
+            appendTag(builder, "White", String.format("White %d", random.nextInt(1000)));
+            appendTag(builder, "Black", String.format("Black %d", random.nextInt(1000)));
+            appendTag(builder, "Result", result);
+            builder.append('\n');
+
+            var lineStart = builder.length();
+            for (var j = 0; j < moves.length; j++) {
+                var token = j % 2 == 0 ? String.format("%d. %s", j / 2 + 1, moves[j]) : moves[j];
+                if (builder.length() - lineStart + token.length() + 1 > 80) {
+                    builder.append('\n');
+                    lineStart = builder.length();
+                } else if (builder.length() > lineStart) {
+                    builder.append(' ');
+                }
+                builder.append(token);
+            }
+            if (builder.length() > lineStart) {
+                builder.append(' ');
+            }
+            builder.append(result);
+            builder.append("\n\n");
+        }
+        return builder.toString();
+    }
+
+    private static void appendTag(StringBuilder builder, String name, String value) {
+        builder.append('[').append(name).append(" \"").append(value).append("\"]\n");
+    }
+
+    private static String[] generateGame(SplittableRandom random) {
+        var state = new ChessState(ChessGame.STANDARD_SETUP);
+        var buffer = new int[ChessState.MAX_MOVES];
+        var moves = new ArrayList<String>();
+        var rule = new Out<ChessRule>();
+        while (moves.size() < MAX_PLIES && state.halfmoveClock < 100) {
+            var n = state.getLegalMoves(buffer);
+            if (n == 0) {
+                break;
+            }
+            state.move(buffer[random.nextInt(n)]);
+            moves.add(state.lastMove.getSan());
+            if (state.getResult(rule) != ChessResult.IN_PROGRESS) {
+                break;
+            }
+        }
+        return moves.toArray(new String[0]);
+    }
+
+    private static String getResult(String[] moves) {
+        if (moves.length == 0 || !moves[moves.length - 1].endsWith("#")) {
+            return PGNGame.RESULT_DRAW;
+        }
+        return moves.length % 2 == 1 ? PGNGame.RESULT_WHITE : PGNGame.RESULT_BLACK;
+    }
+
+}
@@ -0,0 +1,132 @@
+package org.ccrew.cchess.benchmarks;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.ccrew.cchess.lib.PGN;
+import org.ccrew.cchess.lib.PGNError;
+import org.ccrew.cchess.lib.PGNGame;
+import org.ccrew.cchess.lib.PGNReader;
+import org.ccrew.cchess.lib.PGNTokenizer;
+import org.ccrew.cchess.lib.PGNWriter;
+import org.ccrew.cchess.lib.ParallelPGN;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PGNBenchmark {
+
+    /* Size of the generated PGN file in characters */
+    @Param({ "1048576", "8388608" })
+    public int size;
+
+    private String data;
+    private Path file;
+    private MappedByteBuffer mapped;
+    private List<PGNGame> games;
+    private ParallelPGN parallel = new ParallelPGN(ForkJoinPool.commonPool(), 256 << 10);
+
+    @Setup
+    public void setup() throws IOException, PGNError {
+        data = Fixtures.generatePGN(size);
+        games = new PGN(data).games;
+        file = Files.createTempFile("cchess-benchmark", ".pgn");
+        Files.writeString(file, data);
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public PGN parse() throws PGNError {
+        return new PGN(data);
+    }
+
+    /* Games read one at a time without keeping them */
+    @Benchmark
+    public void read(Blackhole blackhole) {
+        new PGNReader(new StringReader(data)).forEachRemaining(blackhole::consume);
+    }
+
+    /* Moves counted straight from the mapped file, without creating any String */
+    @Benchmark
+    public int tokenize() {
+        var tokenizer = new PGNTokenizer(mapped);
+        var moves = 0;
+        int token;
+        while ((token = tokenizer.next()) != PGNTokenizer.END) {
+            if (token == PGNTokenizer.MOVE) {
+                moves++;
+            }
+        }
+        return moves;
+    }
+
+    /* Games read one at a time from the mapped file */
+    @Benchmark
+    public void readMapped(Blackhole blackhole) {
+        var tokenizer = new PGNTokenizer(mapped);
+        PGNGame game;
+        while ((game = tokenizer.readGame()) != null) {
+            blackhole.consume(game);
+        }
+    }
+
+    /* Tags of every game, leaving the moves undecoded */
+    @Benchmark
+    public void readHeaders(Blackhole blackhole) {
+        var tokenizer = new PGNTokenizer(mapped);
+        tokenizer.setLazyMoves(true);
+        PGNGame game;
+        while ((game = tokenizer.readGame()) != null) {
+            blackhole.consume(game.getWhite());
+        }
+    }
+
+    /* Games read from the file on every core, in file order */
+    @Benchmark
+    public List<PGNGame> readParallel() throws IOException {
+        return parallel.read(file);
+    }
+
+    /* All the games written back out as PGN text */
+    @Benchmark
+    public void write() throws IOException {
+        try (var writer = new PGNWriter(Writer.nullWriter())) {
+            for (var game : games) {
+                writer.write(game);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,50 @@
+package org.ccrew.cchess.lib;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/* Work over the items of a list split into batches, each a task on an executor */
+final class Batches {
+
+    private Batches() {
+    }
+
+    interface Task<T> {
+
+        /* Result of the items from start to end */
+        T run(int start, int end);
+
+    }
+
+    /*
+     * Results of the batches in list order. The other batches are cancelled if one
+     * throws, which is rethrown wrapped in a RuntimeException.
+     */
+    static <T> List<T> run(ExecutorService executor, int size, int batchSize, Task<T> task)
+            throws InterruptedException {
+        var futures = new ArrayList<Future<T>>();
+        for (var start = 0; start < size; start += batchSize) {
+            var batchStart = start;
+            var batchEnd = Math.min(start + batchSize, size);
+            futures.add(executor.submit(() -> task.run(batchStart, batchEnd)));
+        }
+
+        var results = new ArrayList<T>(futures.size());
+        try {
+            for (var future : futures) {
+                results.add(future.get());
+            }
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            for (var future : futures) {
+                future.cancel(true);
+            }
+        }
+        return results;
+    }
+
+}
@@ -1030,6 +1030,175 @@ public final class BitBoard {
             0xc040c00000000000L, 0x0203000000000000L, 0x0507000000000000L, 0x0a0e000000000000L, 0x141c000000000000L,
             0x6c38000000000000L, 0x5070000000000000L, 0xa0e0000000000000L, 0x40c0000000000000L };
 
+    /* Squares of the same color as h1 */
+    public static final long whiteSquaresMask = 0x55aa55aa55aa55aaL;
+
+    /*
+     * Squares attacked by each piece, unlike moveMasks these don't contain pawn
+     * advances or castling
+     */
+    public static final long[] pawnAttackMasks = new long[2 * 64];
+    public static final long[] knightAttackMasks = new long[64];
+    public static final long[] kingAttackMasks = new long[64];
+
+    static {
+        for (int index = 0; index < 64; index++) {
+            for (int color = 0; color < 2; color++) {
+                pawnAttackMasks[color * 64 + index] = moveMasks[color * 64 * 6 + index] & ~getFileMask(index % 8);
+            }
+            knightAttackMasks[index] = moveMasks[2 * 64 + index];
+            kingAttackMasks[index] = moveMasks[5 * 64 + index];
+            if (index % 8 >= 2) {
+                kingAttackMasks[index] &= ~getFileMask(index % 8 - 2);
+            }
+            if (index % 8 < 6) {
+                kingAttackMasks[index] &= ~getFileMask(index % 8 + 2);
+            }
+        }
+    }
+
+    static long getFileMask(int file) {
+        return 0x0101010101010101L << file;
+    }
+
+    static long getRankMask(int rank) {
+        return 0xffL << (rank * 8);
+    }
+
+    /* Magic multipliers for rook occupancies */
+    private static final long[] rookMagics = { 0x0080018840015420L, 0x0540100420014002L, 0x0100110008402004L,
+            0x0900100100200408L, 0x2a00200200080410L, 0x6080040002008001L, 0x4280020000800100L, 0x0180004100002480L,
+            0x0020800232400280L, 0x0189402010004001L, 0x0008802000801008L, 0x8082001008204204L, 0x0022000a00201004L,
+            0x0804802400020080L, 0x2114001001080204L, 0x0001800500004080L, 0x8040208000400080L, 0x4110820022420300L,
+            0x0000808010002002L, 0x0000090010002100L, 0x0000808004000802L, 0x0002008002040080L, 0x08e0040001100208L,
+            0x8288060000a24c03L, 0x8800802080004000L, 0x8090500040002000L, 0x9020010100104020L, 0x200a001200200840L,
+            0x020c000808004080L, 0x0002000200100804L, 0x0001002100141200L, 0x0080014200209904L, 0x0080814001800024L,
+            0x8410002000404002L, 0x0220a00082803000L, 0x0000080080801000L, 0x8404008008080040L, 0x4006000402000810L,
+            0x0801020804005001L, 0x4400800040800100L, 0x044018c221808000L, 0x1021500320044000L, 0x3006048020120041L,
+            0x1270008008008010L, 0x2054000800808004L, 0x40c1000804010002L, 0x05800208410400b0L, 0x0640508061160004L,
+            0x202040118000a280L, 0x0020084008802080L, 0x0008204080120200L, 0x4101a30210000900L, 0x090500c800045100L,
+            0x000200e4000e8080L, 0x0030500102884400L, 0x1900404401008200L, 0x8010800010204109L, 0x2020108900244001L,
+            0x9000084011002001L, 0x1042442100c81001L, 0x1409000210040801L, 0x0112000811041016L, 0x197a100802008104L,
+            0x0928840102815422L };
+
+    /* Magic multipliers for bishop occupancies */
+    private static final long[] bishopMagics = { 0x0440100200803280L, 0x4250100900618808L, 0x2004010425084090L,
+            0x840c042580a00001L, 0x0014242000800002L, 0x0042086208000288L, 0x0080420820088040L, 0x8029010810840402L,
+            0x4020040410040108L, 0x0020840404040832L, 0x8c201044004040a8L, 0x8000040418800204L, 0x4110c11041182050L,
+            0xc881010120100000L, 0x9210020202218401L, 0x4300048401080201L, 0x5140002104240080L, 0xc104001050009100L,
+            0x80900c8a44048220L, 0x0208000c02400a04L, 0x0284002a0611100dL, 0x4001000480a0010aL, 0x8004100c80841049L,
+            0x0000400208420800L, 0x2020100020024220L, 0x02080400a9210815L, 0x0000500008008012L, 0x7034080020220040L,
+            0x00490010a5004000L, 0x0000920001010080L, 0x020a285028841000L, 0x0001120003420089L, 0x9044022001424410L,
+            0x100110820008880cL, 0x1021004046080080L, 0x2200020080480082L, 0x2004140400001010L, 0x2000900102038084L,
+            0x0021190204040240L, 0x0004244200614120L, 0x02008248401c2000L, 0x8005010820810280L, 0x0030202030002800L,
+            0x0000020102412403L, 0x4100080104442400L, 0x000aae1042000100L, 0x1002108111008200L, 0x0008420040400200L,
+            0x4086023005040004L, 0x0012841111100200L, 0x240004242208270aL, 0x000c081104980400L, 0x0020a00410440000L,
+            0x1800430408098400L, 0x2020c40102240000L, 0x00788200dc01000aL, 0x1100105110082000L, 0x0600004420a80808L,
+            0x00018003004110a4L, 0x1010700000208830L, 0x0801102091020200L, 0x4000000408105100L, 0x8000300401481620L,
+            0x1010042810404200L };
+
+    /* Squares that can block a slider on each location (the board edge never blocks) */
+    private static final long[] rookOccupancyMasks = new long[64];
+    private static final long[] bishopOccupancyMasks = new long[64];
+
+    /* Shift applied to the magic product to get the table index */
+    private static final int[] rookShifts = new int[64];
+    private static final int[] bishopShifts = new int[64];
+
+    /* Start of each location in the attack tables */
+    private static final int[] rookOffsets = new int[64];
+    private static final int[] bishopOffsets = new int[64];
+
+    /* Attacks for each location and relevant occupancy */
+    private static final long[] rookAttacks;
+    private static final long[] bishopAttacks;
+
+    private static final int[][] rookDirections = { { 1, 0 }, { -1, 0 }, { 0, 1 }, { 0, -1 } };
+    private static final int[][] bishopDirections = { { 1, 1 }, { 1, -1 }, { -1, 1 }, { -1, -1 } };
+
+    static {
+        rookAttacks = generateAttacks(rookMagics, rookOccupancyMasks, rookShifts, rookOffsets, rookDirections);
+        bishopAttacks = generateAttacks(bishopMagics, bishopOccupancyMasks, bishopShifts, bishopOffsets,
+                bishopDirections);
+    }
+
+    private static long[] generateAttacks(long[] magics, long[] occupancyMasks, int[] shifts, int[] offsets,
+            int[][] directions) {
+        int size = 0;
+        for (int index = 0; index < 64; index++) {
+            occupancyMasks[index] = getSlideMask(index, directions);
+            var bits = Long.bitCount(occupancyMasks[index]);
+            shifts[index] = 64 - bits;
+            offsets[index] = size;
+            size += 1 << bits;
+        }
+
+        long[] attacks = new long[size];
+        for (int index = 0; index < 64; index++) {
+            /* Walk every subset of the occupancy mask */
+            long mask = occupancyMasks[index];
+            long occupancy = 0;
+            do {
+                int key = (int) ((occupancy * magics[index]) >>> shifts[index]);
+                attacks[offsets[index] + key] = getSlideAttacks(index, occupancy, directions);
+                occupancy = (occupancy - mask) & mask;
+            } while (occupancy != 0);
+        }
+
+        return attacks;
+    }
+
+    private static long getSlideMask(int index, int[][] directions) {
+        long mask = 0;
+        for (var direction : directions) {
+            int rank = index / 8 + direction[0];
+            int file = index % 8 + direction[1];
+            while (isOnBoard(rank + direction[0], file + direction[1])) {
+                mask |= setLocationMasks[rank * 8 + file];
+                rank += direction[0];
+                file += direction[1];
+            }
+        }
+        return mask;
+    }
+
+    private static long getSlideAttacks(int index, long occupancy, int[][] directions) {
+        long attacks = 0;
+        for (var direction : directions) {
+            int rank = index / 8 + direction[0];
+            int file = index % 8 + direction[1];
+            while (isOnBoard(rank, file)) {
+                attacks |= setLocationMasks[rank * 8 + file];
+                if ((occupancy & setLocationMasks[rank * 8 + file]) != 0) {
+                    break;
+                }
+                rank += direction[0];
+                file += direction[1];
+            }
+        }
+        return attacks;
+    }
+
+    private static boolean isOnBoard(int rank, int file) {
+        return rank >= 0 && rank < 8 && file >= 0 && file < 8;
+    }
+
+    /* Squares a rook on the given location attacks, stopping at the first piece in each direction */
+    public static long getRookAttacks(int index, long occupancy) {
+        int key = (int) (((occupancy & rookOccupancyMasks[index]) * rookMagics[index]) >>> rookShifts[index]);
+        return rookAttacks[rookOffsets[index] + key];
+    }
+
+    /* Squares a bishop on the given location attacks, stopping at the first piece in each direction */
+    public static long getBishopAttacks(int index, long occupancy) {
+        int key = (int) (((occupancy & bishopOccupancyMasks[index]) * bishopMagics[index]) >>> bishopShifts[index]);
+        return bishopAttacks[bishopOffsets[index] + key];
+    }
+
+    public static long getQueenAttacks(int index, long occupancy) {
+        return getRookAttacks(index, occupancy) | getBishopAttacks(index, occupancy);
+    }
+
     public static String toString(long mask) {
         var string = "+---+---+---+---+---+---+---+---+\n";
         int rowCount = 0;
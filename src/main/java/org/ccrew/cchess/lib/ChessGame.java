@@ -1,6 +1,7 @@
 package org.ccrew.cchess.lib;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 
 import org.ccrew.cchess.lib.ChessPlayer.DoMoveSource;
@@ -50,6 +51,12 @@ public class ChessGame {
     public ChessRule rule;
     public List<ChessState> moveStack = new ArrayList<>();
 
+    /*
+     * Number of times each position key has occurred since the last irreversible
+     * move, earlier positions can't be repeated
+     */
+    private HashMap<Long, Integer> repetitions = new HashMap<>();
+
     private int holdCount = 0;
 
     public static final String STANDARD_SETUP = "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1";
@@ -166,6 +173,7 @@ public class ChessGame {
     public ChessGame(String fen, String[] moves) throws PGNError {
         isStarted = false;
         moveStack.add(0, new ChessState(fen));
+        addRepetition(getCurrentState());
         result = ChessResult.IN_PROGRESS;
 
         if (moves != null) {
@@ -223,6 +231,7 @@ public class ChessGame {
         }
 
         moveStack.add(0, state);
+        addRepetition(state);
         if (state.lastMove.victim != null) {
             state.lastMove.victim.died();
         }
@@ -305,7 +314,7 @@ public class ChessGame {
         }
 
         /* Pop off the move state */
-        moveStack.remove(0);
+        removeRepetition(moveStack.remove(0));
 
         /* Restart the game if undo was done after end of the game */
         if (result != ChessResult.IN_PROGRESS) {
@@ -331,16 +340,35 @@ public class ChessGame {
         return true;
     };
 
-    private int stateRepeatedTimes(ChessState s1) {
-        var count = 1;
+    private void addRepetition(ChessState state) {
+        /* Pawn moves and captures can't be undone so no earlier position can occur again */
+        if (state.halfmoveClock == 0) {
+            repetitions.clear();
+        }
 
-        for (var s2 : moveStack) {
-            if (s1 != s2 && s1.equals(s2)) {
-                count++;
+        repetitions.merge(state.getKey(), 1, Integer::sum);
+    }
+
+    private void removeRepetition(ChessState state) {
+        /* Undoing an irreversible move brings back the positions before it */
+        if (state.halfmoveClock == 0) {
+            repetitions.clear();
+            for (var s : moveStack) {
+                repetitions.merge(s.getKey(), 1, Integer::sum);
+                if (s.halfmoveClock == 0) {
+                    break;
+                }
             }
+            return;
         }
 
-        return count;
+        if (repetitions.merge(state.getKey(), -1, Integer::sum) <= 0) {
+            repetitions.remove(state.getKey());
+        }
+    }
+
+    private int stateRepeatedTimes(ChessState s1) {
+        return repetitions.getOrDefault(s1.getKey(), 1);
     }
 
     public boolean isThreeFoldRepeat() {
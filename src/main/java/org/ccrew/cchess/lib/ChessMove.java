@@ -16,107 +16,124 @@ public class ChessMove {
     public boolean enPassant;
     public CheckState checkState;
 
+    private static final String[] sanPieceNames = { "", "R", "N", "B", "Q", "K" };
+    private static final String[] whiteFanPieceNames = { "", "♖", "♘", "♗", "♕", "♔" };
+    private static final String[] blackFanPieceNames = { "", "♜", "♞", "♝", "♛", "♚" };
+
     public String getLan() {
-        if (castlingRook != null) {
-            if (f1 > f0) {
-                return "O-O";
-            } else {
-                return "O-O-O";
-            }
-        }
+        return appendLan(new StringBuilder(8)).toString();
+    }
 
-        var builder = new StringBuilder();
-        if (victim != null) {
-            builder.append(String.format("%c%dx%c%d", 'a' + f0, r0 + 1, 'a' + f1, r1 + 1));
-        } else {
-            builder.append(String.format("%c%d-%c%d", 'a' + f0, r0 + 1, 'a' + f1, r1 + 1));
+    public StringBuilder appendLan(StringBuilder builder) {
+        if (castlingRook != null) {
+            return builder.append(f1 > f0 ? "O-O" : "O-O-O");
         }
 
-        final char[] promotionSymbols = { ' ', 'R', 'N', 'B', 'Q', 'K' };
+        Notation.appendSquare(builder, ChessState.getIndex(r0, f0));
+        builder.append(victim != null ? 'x' : '-');
+        Notation.appendSquare(builder, ChessState.getIndex(r1, f1));
         if (promotionPiece != null) {
-            builder.append(String.format("=%c", promotionSymbols[promotionPiece.type.ordinal()]));
-        }
-
-        switch (checkState) {
-            case CHECK:
-                builder.append('+');
-                break;
-            case CHECKMATE:
-                builder.append('#');
-                break;
-            default:
-                break;
+            builder.append('=').append(Notation.pieceSymbols[promotionPiece.type.ordinal()]);
         }
-
-        return builder.toString();
+        return appendCheck(builder);
     }
 
     public String getSan() {
-        final String[] pieceNames = { "", "R", "N", "B", "Q", "K" };
-        return makeSan(pieceNames);
+        return makeSan(sanPieceNames);
+    }
+
+    public StringBuilder appendSan(StringBuilder builder) {
+        return appendSan(builder, sanPieceNames);
     }
 
     public String getFan() {
-        final String[] whitePieceNames = { "", "♖", "♘", "♗", "♕", "♔" };
-        final String[] blackPieceNames = { "", "♜", "♞", "♝", "♛", "♚" };
-        if (piece.getColor() == Color.WHITE) {
-            return makeSan(whitePieceNames);
-        } else {
-            return makeSan(blackPieceNames);
-        }
+        return makeSan(piece.getColor() == Color.WHITE ? whiteFanPieceNames : blackFanPieceNames);
     }
 
     public String makeSan(String[] pieceNames) {
+        return appendSan(new StringBuilder(8), pieceNames).toString();
+    }
+
+    public StringBuilder appendSan(StringBuilder builder, String[] pieceNames) {
         if (castlingRook != null) {
-            if (f1 > f0) {
-                return "0-0";
-            } else {
-                return "0-0-0";
-            }
+            return builder.append(f1 > f0 ? "O-O" : "O-O-O");
         }
 
-        var builder = new StringBuilder();
         builder.append(pieceNames[piece.type.ordinal()]);
         if (ambiguousFile) {
-            builder.append(String.format("%c", 'a' + f0));
+            builder.append((char) ('a' + f0));
         }
         if (ambiguousRank) {
-            builder.append(String.format("%d", r0 + 1));
+            builder.append((char) ('1' + r0));
         }
         if (victim != null) {
-            builder.append("x");
+            builder.append('x');
+        }
+        Notation.appendSquare(builder, ChessState.getIndex(r1, f1));
+        if (promotionPiece != null) {
+            builder.append('=').append(pieceNames[promotionPiece.type.ordinal()]);
+        }
+        return appendCheck(builder);
+    }
+
+    /* SAN as ASCII bytes, at most 7 */
+    public int writeSan(byte[] buffer, int offset) {
+        if (castlingRook != null) {
+            var castling = f1 > f0 ? "O-O" : "O-O-O";
+            for (var i = 0; i < castling.length(); i++) {
+                buffer[offset++] = (byte) castling.charAt(i);
+            }
+            return offset;
         }
-        builder.append(String.format("%c%d", 'a' + f1, r1 + 1));
 
+        if (piece.type != PieceType.PAWN) {
+            buffer[offset++] = (byte) Notation.pieceSymbols[piece.type.ordinal()];
+        }
+        if (ambiguousFile) {
+            buffer[offset++] = (byte) ('a' + f0);
+        }
+        if (ambiguousRank) {
+            buffer[offset++] = (byte) ('1' + r0);
+        }
+        if (victim != null) {
+            buffer[offset++] = 'x';
+        }
+        offset = Notation.writeSquare(buffer, offset, ChessState.getIndex(r1, f1));
         if (promotionPiece != null) {
-            builder.append(String.format("=%s", pieceNames[promotionPiece.type.ordinal()]));
+            buffer[offset++] = '=';
+            buffer[offset++] = (byte) Notation.pieceSymbols[promotionPiece.type.ordinal()];
+        }
+        if (checkState == CheckState.CHECK) {
+            buffer[offset++] = '+';
+        } else if (checkState == CheckState.CHECKMATE) {
+            buffer[offset++] = '#';
         }
+        return offset;
+    }
 
+    private StringBuilder appendCheck(StringBuilder builder) {
         switch (checkState) {
             case CHECK:
-                builder.append('+');
-                break;
+                return builder.append('+');
             case CHECKMATE:
-                builder.append('#');
-                break;
+                return builder.append('#');
             default:
-                break;
+                return builder;
         }
-
-        return builder.toString();
     }
 
     /* Move suitable for a chess engine (CECP/UCI) */
     public String getEngine() {
-        var builder = new StringBuilder();
-        final char[] promotionSymbols = { ' ', 'r', 'n', 'b', 'q', ' ' };
+        return appendEngine(new StringBuilder(5)).toString();
+    }
+
+    public StringBuilder appendEngine(StringBuilder builder) {
+        Notation.appendSquare(builder, ChessState.getIndex(r0, f0));
+        Notation.appendSquare(builder, ChessState.getIndex(r1, f1));
         if (promotionPiece != null) {
-            builder.append(String.format("%c%d%c%d%c", 'a' + f0, r0 + 1, 'a' + f1, r1 + 1,
-                    promotionSymbols[promotionPiece.type.ordinal()]));
-        } else {
-            builder.append(String.format("%c%d%c%d", 'a' + f0, r0 + 1, 'a' + f1, r1 + 1));
+            builder.append(Notation.enginePromotionSymbols[promotionPiece.type.ordinal()]);
         }
-        return builder.toString();
+        return builder;
     }
 
     @Override
@@ -90,26 +90,28 @@ public class ChessPlayer {
     }
 
     public boolean moveWithCoords(int r0, int f0, int r1, int f1, boolean apply, PieceType promotionType) {
-        String move = String.format("%c%d%c%d", 'a' + f0, r0 + 1, 'a' + f1, r1 + 1);
+        var move = new StringBuilder(6);
+        Notation.appendSquare(move, ChessState.getIndex(r0, f0));
+        Notation.appendSquare(move, ChessState.getIndex(r1, f1));
 
         switch (promotionType) {
             case QUEEN:
                 /* Default is queen so don't add anything */
                 break;
             case KNIGHT:
-                move += "=N";
+                move.append("=N");
                 break;
             case ROOK:
-                move += "=R";
+                move.append("=R");
                 break;
             case BISHOP:
-                move += "=B";
+                move.append("=B");
                 break;
             default:
                 break;
         }
 
-        return doMove(move, apply);
+        return doMove(move.toString(), apply);
     }
 
     public void undo() {
@@ -2,6 +2,9 @@ package org.ccrew.cchess.lib;
 
 import static org.ccrew.cchess.util.Logging.debug;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 import org.ccrew.cchess.util.Out;
 
 public class ChessState {
@@ -26,80 +29,247 @@ public class ChessState {
     /* Bitmap of all the pieces */
     private long[] pieceMasks = new long[2];
 
+    /* Bitmap of the pieces of each color and type */
+    private long[] typeMasks = new long[2 * 6];
+
+    /* Zobrist key of the position */
+    private long key;
+
+    /* Pieces checking the player on move and their pieces pinned to the king */
+    private long checkers;
+    private long pinned;
+
+    /*
+     * Undo record for moves tried by moveWithCoords, only needed until the move is
+     * either taken back or kept
+     */
+    private ChessUndo moveUndo = new ChessUndo();
+
+    /*
+     * Undo record for toChessMove, apart from moveUndo as finding the check state
+     * after the move tries moves with moveWithCoords
+     */
+    private ChessUndo chessMoveUndo = new ChessUndo();
+
+    /* Pieces taken off the board by setFen to be put back */
+    private ChessPiece[] spares;
+
+    /* Enough room for the legal moves of any position */
+    public static final int MAX_MOVES = 256;
+
+    /* Longest FEN written for a position, with a ten digit halfmove clock and fullmove number */
+    public static final int MAX_FEN_LENGTH = 103;
+
+    /* FEN letters of the pieces by color and type, and of the castling rights by bit */
+    private static final char[] fenSymbols = { 'P', 'R', 'N', 'B', 'Q', 'K', 'p', 'r', 'n', 'b', 'q', 'k' };
+    private static final char[] castlingSymbols = { 'K', 'Q', 'k', 'q' };
+
+    /* Order promotions are generated in */
+    private static final PieceType[] promotionTypes = { PieceType.QUEEN, PieceType.ROOK, PieceType.KNIGHT,
+            PieceType.BISHOP };
+
     private ChessState() {
     }
 
     public ChessState(String fen) {
         players[Color.WHITE.ordinal()] = new ChessPlayer(Color.WHITE);
         players[Color.BLACK.ordinal()] = new ChessPlayer(Color.BLACK);
-        for (int i = 0; i < 64; i++) {
-            board[i] = null;
-        }
-
-        String[] fields = fen.split(" ");
-
-        /* Field 1: Piece placement */
-        String[] ranks = fields[0].split("/");
-        for (int rank = 0; rank < 8; rank++) {
-            var rankString = ranks[7 - rank];
-            for (int file = 0, offset = 0; file < 8 && offset < rankString.length(); offset++) {
-                var c = rankString.charAt(offset);
-                if (c >= '1' && c <= '8') {
-                    file += c - '0';
-                    continue;
-                }
+        setFen(fen);
+    }
 
-                Out<PieceType> type = new Out<>();
-                var color = Character.isUpperCase(c) ? Color.WHITE : Color.BLACK;
-                decodePieceType(Character.toUpperCase(c), type);
+    public void setFen(CharSequence fen) {
+        setFen(fen, 0, fen.length());
+    }
 
-                int index = getIndex(rank, file);
-                ChessPiece piece = new ChessPiece(players[color.ordinal()], type.value);
-                board[index] = piece;
-                long mask = BitBoard.setLocationMasks[index];
-                pieceMasks[color.ordinal()] |= mask;
+    /*
+     * Set up the position from the FEN between start and end of text, so one state
+     * can be reused for many positions. The players are kept, as are the pieces
+     * wherever the same kind of piece is needed again. The halfmove clock and
+     * fullmove number can be left out, as in EPD, and anything after them is
+     * ignored. Throws IllegalArgumentException for an invalid FEN, leaving the
+     * state as it was.
+     */
+    public void setFen(CharSequence text, int start, int end) {
+        /* Field 1: Piece placement, only checked until the other fields are */
+        var i = skipSpaces(text, start, end);
+        var placementStart = i;
+        var rank = 7;
+        var file = 0;
+        for (; i < end && text.charAt(i) != ' '; i++) {
+            var c = text.charAt(i);
+            if (c == '/' && file == 8 && rank > 0) {
+                rank--;
+                file = 0;
+            } else if (c >= '1' && c <= '8' && file + c - '0' <= 8) {
+                file += c - '0';
+            } else if (decodePieceType(Character.toUpperCase(c)) != null && file < 8) {
                 file++;
+            } else {
+                throw invalidFen(text, start, end);
             }
         }
+        if (rank != 0 || file != 8) {
+            throw invalidFen(text, start, end);
+        }
 
         /* Field 2: Active color */
-        if (fields[1].equals("w")) {
-            currentPlayer = players[Color.WHITE.ordinal()];
-        } else if (fields[1].equals("b")) {
-            currentPlayer = players[Color.BLACK.ordinal()];
+        i = skipSpaces(text, i, end);
+        Color color;
+        if (i < end && text.charAt(i) == 'w') {
+            color = Color.WHITE;
+        } else if (i < end && text.charAt(i) == 'b') {
+            color = Color.BLACK;
+        } else {
+            throw invalidFen(text, start, end);
         }
+        i = endField(text, i + 1, start, end);
 
         /* Field 3: Castling availability */
-        if (!fields[2].equals("-")) {
-            for (int i = 0; i < fields[2].length(); i++) {
-                var c = fields[2].charAt(i);
-                if (c == 'K') {
-                    canCastleKingside[Color.WHITE.ordinal()] = true;
-                } else if (c == 'Q') {
-                    canCastleQueenside[Color.WHITE.ordinal()] = true;
-                } else if (c == 'k') {
-                    canCastleKingside[Color.BLACK.ordinal()] = true;
-                } else if (c == 'q') {
-                    canCastleQueenside[Color.BLACK.ordinal()] = true;
+        var castling = 0;
+        if (i < end && text.charAt(i) == '-') {
+            i = endField(text, i + 1, start, end);
+        } else {
+            for (; i < end && text.charAt(i) != ' '; i++) {
+                var bit = 0;
+                while (bit < 4 && castlingSymbols[bit] != text.charAt(i)) {
+                    bit++;
+                }
+                if (bit == 4) {
+                    throw invalidFen(text, start, end);
                 }
+                castling |= 1 << bit;
             }
+            i = skipSpaces(text, i, end);
         }
 
         /* Field 4: En passant target square */
-        if (!fields[3].equals("-")) {
-            enPassantIndex = getIndex(fields[3].charAt(1) - '1', fields[3].charAt(0) - 'a');
+        var enPassant = -1;
+        if (i < end && text.charAt(i) == '-') {
+            i = endField(text, i + 1, start, end);
+        } else if (i + 1 < end && text.charAt(i) >= 'a' && text.charAt(i) <= 'h' && text.charAt(i + 1) >= '1'
+                && text.charAt(i + 1) <= '8') {
+            enPassant = getIndex(text.charAt(i + 1) - '1', text.charAt(i) - 'a');
+            i = endField(text, i + 2, start, end);
+        } else {
+            throw invalidFen(text, start, end);
         }
 
         /* Field 5: Halfmove clock */
-        halfmoveClock = Integer.parseInt(fields[4]);
+        var halfmoves = 0;
+        if (i < end) {
+            halfmoves = parseNumber(text, i, start, end);
+            i = skipSpaces(text, skipDigits(text, i, end), end);
+        }
 
         /* Field 6: Fullmove number */
-        number = (Integer.parseInt(fields[5]) - 1) * 2;
-        if (currentPlayer.color == Color.BLACK) {
+        var fullmoves = 1;
+        if (i < end) {
+            fullmoves = parseNumber(text, i, start, end);
+        }
+
+        setPlacement(text, placementStart);
+        currentPlayer = players[color.ordinal()];
+        setCastling(castling);
+        enPassantIndex = enPassant;
+        halfmoveClock = halfmoves;
+        number = (fullmoves - 1) * 2;
+        if (color == Color.BLACK) {
             number++;
         }
+        lastMove = null;
 
-        checkState = getCheckState(currentPlayer);
+        key = generateKey();
+        updateCheckState(getCheckers(currentPlayer.color));
+    }
+
+    /* Put the pieces of a checked piece placement field on the board, reusing the ones already there */
+    private void setPlacement(CharSequence text, int i) {
+        if (spares == null) {
+            spares = new ChessPiece[64];
+        }
+        var spareCount = 0;
+        for (var index = 0; index < 64; index++) {
+            if (board[index] != null) {
+                spares[spareCount++] = board[index];
+                board[index] = null;
+            }
+        }
+        pieceMasks[Color.WHITE.ordinal()] = 0;
+        pieceMasks[Color.BLACK.ordinal()] = 0;
+        for (var j = 0; j < typeMasks.length; j++) {
+            typeMasks[j] = 0;
+        }
+
+        for (int rank = 7, file = 0; rank > 0 || file < 8; i++) {
+            var c = text.charAt(i);
+            if (c == '/') {
+                rank--;
+                file = 0;
+                continue;
+            }
+            if (c >= '1' && c <= '8') {
+                file += c - '0';
+                continue;
+            }
+
+            var player = players[Character.isUpperCase(c) ? Color.WHITE.ordinal() : Color.BLACK.ordinal()];
+            var type = decodePieceType(Character.toUpperCase(c));
+            ChessPiece piece = null;
+            for (var j = 0; j < spareCount; j++) {
+                if (spares[j].player == player && spares[j].type == type) {
+                    piece = spares[j];
+                    spares[j] = spares[--spareCount];
+                    spares[spareCount] = null;
+                    break;
+                }
+            }
+            if (piece == null) {
+                piece = new ChessPiece(player, type);
+            }
+            setPiece(getIndex(rank, file), piece);
+            file++;
+        }
+        for (var j = 0; j < spareCount; j++) {
+            spares[j] = null;
+        }
+    }
+
+    private static IllegalArgumentException invalidFen(CharSequence text, int start, int end) {
+        return new IllegalArgumentException(String.format("Invalid FEN %s", text.subSequence(start, end)));
+    }
+
+    private static int skipSpaces(CharSequence text, int i, int end) {
+        while (i < end && text.charAt(i) == ' ') {
+            i++;
+        }
+        return i;
+    }
+
+    private static int skipDigits(CharSequence text, int i, int end) {
+        while (i < end && text.charAt(i) >= '0' && text.charAt(i) <= '9') {
+            i++;
+        }
+        return i;
+    }
+
+    /* Start of the next field after a field ending at i, which must be followed by a space or the end */
+    private static int endField(CharSequence text, int i, int start, int end) {
+        if (i < end && text.charAt(i) != ' ') {
+            throw invalidFen(text, start, end);
+        }
+        return skipSpaces(text, i, end);
+    }
+
+    private static int parseNumber(CharSequence text, int i, int start, int end) {
+        var digitsEnd = skipDigits(text, i, end);
+        if (digitsEnd == i || digitsEnd - i > 9 || (digitsEnd < end && text.charAt(digitsEnd) != ' ')) {
+            throw invalidFen(text, start, end);
+        }
+        var value = 0;
+        for (; i < digitsEnd; i++) {
+            value = value * 10 + text.charAt(i) - '0';
+        }
+        return value;
     }
 
     @Override
@@ -124,6 +294,10 @@ public class ChessState {
         }
         state.pieceMasks[Color.WHITE.ordinal()] = pieceMasks[Color.WHITE.ordinal()];
         state.pieceMasks[Color.BLACK.ordinal()] = pieceMasks[Color.BLACK.ordinal()];
+        System.arraycopy(typeMasks, 0, state.typeMasks, 0, typeMasks.length);
+        state.key = key;
+        state.checkers = checkers;
+        state.pinned = pinned;
         state.halfmoveClock = halfmoveClock;
 
         return state;
@@ -155,8 +329,8 @@ public class ChessState {
             return false;
 
         /* Finally check the same piece types are present */
-        for (int i = 0; i < 64; i++) {
-            if (board[i] != null && board[i].type != state.board[i].type) {
+        for (int i = 0; i < typeMasks.length; i++) {
+            if (typeMasks[i] != state.typeMasks[i]) {
                 return false;
             }
         }
@@ -164,9 +338,55 @@ public class ChessState {
         return true;
     }
 
+    @Override
+    public int hashCode() {
+        return Long.hashCode(key);
+    }
+
+    /*
+     * Zobrist key of the position, which is the same for positions that are equal
+     * and updated incrementally as moves are made
+     */
+    public long getKey() {
+        return key;
+    }
+
+    private long generateKey() {
+        long key = 0;
+        for (int i = 0; i < 64; i++) {
+            var p = board[i];
+            if (p != null) {
+                key ^= Zobrist.getPieceKey(p.getColor(), p.type, i);
+            }
+        }
+        key ^= getCastleKey();
+        if (enPassantIndex >= 0) {
+            key ^= Zobrist.enPassantKeys[enPassantIndex];
+        }
+        if (currentPlayer.color == Color.BLACK) {
+            key ^= Zobrist.blackToMoveKey;
+        }
+        return key;
+    }
+
+    private long getCastleKey() {
+        long key = 0;
+        for (var color : Color.values()) {
+            if (canCastleKingside[color.ordinal()]) {
+                key ^= Zobrist.kingsideCastleKeys[color.ordinal()];
+            }
+            if (canCastleQueenside[color.ordinal()]) {
+                key ^= Zobrist.queensideCastleKeys[color.ordinal()];
+            }
+        }
+        return key;
+    }
+
     public String getFen() {
-        var value = new StringBuilder();
+        return appendFen(new StringBuilder(MAX_FEN_LENGTH)).toString();
+    }
 
+    public StringBuilder appendFen(StringBuilder builder) {
         for (int rank = 7; rank >= 0; rank--) {
             int skipCount = 0;
             for (int file = 0; file < 8; file++) {
@@ -175,63 +395,134 @@ public class ChessState {
                     skipCount++;
                 } else {
                     if (skipCount > 0) {
-                        value.append(String.format("%d", skipCount));
+                        builder.append((char) ('0' + skipCount));
                         skipCount = 0;
                     }
-                    value.append(String.format("%c", p.getSymbol()));
+                    builder.append(fenSymbols[p.getColor().ordinal() * 6 + p.type.ordinal()]);
                 }
             }
             if (skipCount > 0) {
-                value.append(String.format("%d", skipCount));
+                builder.append((char) ('0' + skipCount));
             }
             if (rank != 0) {
-                value.append('/');
+                builder.append('/');
             }
         }
 
-        value.append(' ');
-        if (currentPlayer.color == Color.WHITE) {
-            value.append('w');
-        } else {
-            value.append('b');
-        }
+        builder.append(currentPlayer.color == Color.WHITE ? " w " : " b ");
 
-        value.append(' ');
-        if (canCastleKingside[Color.WHITE.ordinal()]) {
-            value.append('K');
+        var castling = getCastling();
+        if (castling == 0) {
+            builder.append('-');
         }
-        if (canCastleQueenside[Color.WHITE.ordinal()]) {
-            value.append('Q');
+        for (var i = 0; i < 4; i++) {
+            if ((castling & (1 << i)) != 0) {
+                builder.append(castlingSymbols[i]);
+            }
+        }
+
+        builder.append(' ');
+        if (enPassantIndex >= 0) {
+            Notation.appendSquare(builder, enPassantIndex);
+        } else {
+            builder.append('-');
         }
-        if (canCastleKingside[Color.BLACK.ordinal()]) {
-            value.append('k');
+
+        builder.append(' ').append(halfmoveClock);
+        builder.append(' ').append(getFullmoveNumber());
+        return builder;
+    }
+
+    /* Same as appendFen as ASCII, up to MAX_FEN_LENGTH bytes */
+    public int writeFen(byte[] buffer, int offset) {
+        for (int rank = 7; rank >= 0; rank--) {
+            int skipCount = 0;
+            for (int file = 0; file < 8; file++) {
+                var p = board[getIndex(rank, file)];
+                if (p == null) {
+                    skipCount++;
+                } else {
+                    if (skipCount > 0) {
+                        buffer[offset++] = (byte) ('0' + skipCount);
+                        skipCount = 0;
+                    }
+                    buffer[offset++] = (byte) fenSymbols[p.getColor().ordinal() * 6 + p.type.ordinal()];
+                }
+            }
+            if (skipCount > 0) {
+                buffer[offset++] = (byte) ('0' + skipCount);
+            }
+            if (rank != 0) {
+                buffer[offset++] = '/';
+            }
         }
-        if (canCastleQueenside[Color.BLACK.ordinal()]) {
-            value.append('q');
+
+        buffer[offset++] = ' ';
+        buffer[offset++] = (byte) (currentPlayer.color == Color.WHITE ? 'w' : 'b');
+        buffer[offset++] = ' ';
+
+        var castling = getCastling();
+        if (castling == 0) {
+            buffer[offset++] = '-';
         }
-        if (!(canCastleKingside[Color.WHITE.ordinal()] || canCastleQueenside[Color.WHITE.ordinal()]
-                || canCastleKingside[Color.BLACK.ordinal()] || canCastleQueenside[Color.BLACK.ordinal()])) {
-            value.append('-');
+        for (var i = 0; i < 4; i++) {
+            if ((castling & (1 << i)) != 0) {
+                buffer[offset++] = (byte) castlingSymbols[i];
+            }
         }
 
-        value.append(' ');
+        buffer[offset++] = ' ';
         if (enPassantIndex >= 0) {
-            value.append(String.format("%c%d", 'a' + getFile(enPassantIndex), getRank(enPassantIndex) + 1));
+            offset = Notation.writeSquare(buffer, offset, enPassantIndex);
         } else {
-            value.append('-');
+            buffer[offset++] = '-';
         }
 
-        value.append(' ');
-        value.append(String.format("%d", halfmoveClock));
+        buffer[offset++] = ' ';
+        offset = writeNumber(buffer, offset, halfmoveClock);
+        buffer[offset++] = ' ';
+        return writeNumber(buffer, offset, getFullmoveNumber());
+    }
 
-        value.append(' ');
-        if (currentPlayer.color == Color.WHITE) {
-            value.append(String.format("%d", number / 2));
-        } else {
-            value.append(String.format("%d", number / 2 + 1));
+    private int getFullmoveNumber() {
+        return currentPlayer.color == Color.WHITE ? number / 2 : number / 2 + 1;
+    }
+
+    private static int writeNumber(byte[] buffer, int offset, int number) {
+        var length = 1;
+        for (var n = number / 10; n > 0; n /= 10) {
+            length++;
         }
+        for (var i = offset + length - 1; i >= offset; i--) {
+            buffer[i] = (byte) ('0' + number % 10);
+            number /= 10;
+        }
+        return offset + length;
+    }
 
-        return value.toString();
+    public long getPieceMask(Color color) {
+        return pieceMasks[color.ordinal()];
+    }
+
+    public long getPieceMask(Color color, PieceType type) {
+        return typeMasks[color.ordinal() * 6 + type.ordinal()];
+    }
+
+    private void setPiece(int index, ChessPiece piece) {
+        var color = piece.getColor();
+        board[index] = piece;
+        pieceMasks[color.ordinal()] |= BitBoard.setLocationMasks[index];
+        typeMasks[color.ordinal() * 6 + piece.type.ordinal()] |= BitBoard.setLocationMasks[index];
+        key ^= Zobrist.getPieceKey(color, piece.type, index);
+    }
+
+    private void clearPiece(int index) {
+        var piece = board[index];
+        var color = piece.getColor();
+        board[index] = null;
+        pieceMasks[color.ordinal()] &= BitBoard.clearLocationMasks[index];
+        typeMasks[color.ordinal() * 6 + piece.type.ordinal()] &= BitBoard.clearLocationMasks[index];
+        key ^= Zobrist.getPieceKey(color, piece.type, index);
     }
 
     public static int getIndex(int rank, int file) {
@@ -251,21 +542,28 @@ public class ChessState {
     }
 
     public boolean move(String move, boolean apply) {
-        Out<Integer> r0 = new Out<>();
-        Out<Integer> f0 = new Out<>();
-        Out<Integer> r1 = new Out<>();
-        Out<Integer> f1 = new Out<>();
-        Out<PieceType> promotionType = new Out<>();
-
-        if (!decodeMove(currentPlayer, move, r0, f0, r1, f1, promotionType)) {
+        var packedMove = decodeSan(move);
+        if (packedMove == PackedMove.NONE) {
             return false;
         }
 
-        if (!moveWithCoords(currentPlayer, r0.value, f0.value, r1.value, f1.value, promotionType.value, apply)) {
-            return false;
+        return move(packedMove, apply);
+    }
+
+    public boolean move(int move) {
+        return move(move, true);
+    }
+
+    public boolean move(int move, boolean apply) {
+        var start = PackedMove.getStart(move);
+        var end = PackedMove.getEnd(move);
+        var promotionType = PackedMove.getPromotionType(move);
+        if (promotionType == null) {
+            promotionType = PieceType.QUEEN;
         }
 
-        return true;
+        return moveWithCoords(currentPlayer, getRank(start), getFile(start), getRank(end), getFile(end), promotionType,
+                apply, true);
     }
 
     public boolean moveWithCoords(ChessPlayer player, int r0, int f0, int r1, int f1) {
@@ -296,7 +594,6 @@ public class ChessState {
         var end = getIndex(r1, f1);
 
         var color = player.color;
-        var opponentColor = color == Color.WHITE ? Color.BLACK : Color.WHITE;
 
         /* Must be moving own piece */
         var piece = board[start];
@@ -390,7 +687,7 @@ public class ChessState {
                     }
 
                     /* Can't castle when in check */
-                    if (checkState == CheckState.CHECK) {
+                    if (isInCheck(player)) {
                         return false;
                     }
 
@@ -440,39 +737,149 @@ public class ChessState {
             }
         }
 
-        var oldWhiteMask = pieceMasks[Color.WHITE.ordinal()];
-        var oldBlackMask = pieceMasks[Color.BLACK.ordinal()];
-        var oldWhiteCanCastleKingside = canCastleKingside[Color.WHITE.ordinal()];
-        var oldWhiteCanCastleQueenside = canCastleQueenside[Color.WHITE.ordinal()];
-        var oldBlackCanCastleKingside = canCastleKingside[Color.BLACK.ordinal()];
-        var oldBlackCanCastleQueenside = canCastleQueenside[Color.BLACK.ordinal()];
-        var OldEnPassantIndex = enPassantIndex;
-        var OldHalfmoveClock = halfmoveClock;
-
         /* Update board */
-        board[start] = null;
-        pieceMasks[Color.WHITE.ordinal()] &= BitBoard.clearLocationMasks[start];
-        pieceMasks[Color.BLACK.ordinal()] &= BitBoard.clearLocationMasks[start];
-        if (victim != null) {
-            board[victimIndex] = null;
-            pieceMasks[Color.WHITE.ordinal()] &= BitBoard.clearLocationMasks[victimIndex];
-            pieceMasks[Color.BLACK.ordinal()] &= BitBoard.clearLocationMasks[victimIndex];
+        applyMove(start, end, victim != null ? victimIndex : -1, rookStart, rookEnd, isPromotion ? promotionType : null,
+                moveUndo);
+
+        /* Test if this move would leave that player in check */
+        boolean result = true;
+        if (testCheck && isInCheck(player)) {
+            result = false;
         }
+
+        /* Undo move */
+        if (!apply || !result) {
+            revertMove(moveUndo);
+            return result;
+        }
+
+        currentPlayer = color == Color.WHITE ? players[Color.BLACK.ordinal()] : players[Color.WHITE.ordinal()];
+        key ^= Zobrist.blackToMoveKey;
+        updateCheckState(getCheckersAfterMove(moveUndo));
+
+        lastMove = new ChessMove();
+        lastMove.number = number;
+        lastMove.piece = piece;
         if (isPromotion) {
-            board[end] = new ChessPiece(player, promotionType);
+            lastMove.promotionPiece = board[end];
+        }
+        lastMove.victim = victim;
+        if (rookEnd >= 0) {
+            lastMove.castlingRook = board[rookEnd];
+        }
+        lastMove.r0 = r0;
+        lastMove.f0 = f0;
+        lastMove.r1 = r1;
+        lastMove.f1 = f1;
+        lastMove.ambiguousRank = ambiguousRank;
+        lastMove.ambiguousFile = ambiguousFile;
+        lastMove.enPassant = enPassant;
+        lastMove.checkState = checkState;
+
+        return true;
+    }
+
+    /*
+     * Make a legal move for the current player, such as one from getLegalMoves, and
+     * advance to the next ply. Unlike move this doesn't validate the move or build
+     * lastMove. What is needed to take the move back is stored in undo.
+     */
+    public void makeMove(int move, ChessUndo undo) {
+        var start = PackedMove.getStart(move);
+        var end = PackedMove.getEnd(move);
+        var piece = board[start];
+
+        var victimIndex = board[end] != null ? end : -1;
+        var rookStart = -1;
+        var rookEnd = -1;
+        var promotionType = PackedMove.getPromotionType(move);
+        switch (piece.type) {
+            case PAWN:
+                /* Check if taking an marched pawn */
+                if (victimIndex < 0 && end == enPassantIndex) {
+                    victimIndex = getIndex(getRank(end) == 2 ? 3 : 4, getFile(end));
+                }
+                if (promotionType == null && (getRank(end) == 0 || getRank(end) == 7)) {
+                    promotionType = PieceType.QUEEN;
+                }
+                break;
+            case KING:
+                /* If moving more than one square must be castling */
+                if (Math.abs(getFile(start) - getFile(end)) > 1) {
+                    rookStart = getIndex(getRank(start), end > start ? 7 : 0);
+                    rookEnd = end > start ? end - 1 : end + 1;
+                }
+                break;
+            default:
+                break;
+        }
+
+        undo.checkState = checkState;
+        undo.checkers = checkers;
+        undo.pinned = pinned;
+        undo.lastMove = lastMove;
+        applyMove(start, end, victimIndex, rookStart, rookEnd, promotionType, undo);
+
+        number++;
+        currentPlayer = getOpponent();
+        key ^= Zobrist.blackToMoveKey;
+        lastMove = null;
+        updateCheckState(getCheckersAfterMove(undo));
+    }
+
+    /* Take back the move made with makeMove */
+    public void unmakeMove(ChessUndo undo) {
+        revertMove(undo);
+
+        number--;
+        currentPlayer = undo.piece.player;
+        checkState = undo.checkState;
+        checkers = undo.checkers;
+        pinned = undo.pinned;
+        lastMove = undo.lastMove;
+    }
+
+    /*
+     * Move the pieces and update the castling, en passant and halfmove state,
+     * recording the previous values in undo. The side on move is not changed.
+     */
+    private void applyMove(int start, int end, int victimIndex, int rookStart, int rookEnd, PieceType promotionType,
+            ChessUndo undo) {
+        var piece = board[start];
+        var victim = victimIndex >= 0 ? board[victimIndex] : null;
+        var color = piece.getColor();
+        var opponentColor = color == Color.WHITE ? Color.BLACK : Color.WHITE;
+
+        undo.start = start;
+        undo.end = end;
+        undo.piece = piece;
+        undo.victim = victim;
+        undo.victimIndex = victimIndex;
+        undo.rookStart = rookStart;
+        undo.rookEnd = rookEnd;
+        undo.castling = getCastling();
+        undo.enPassantIndex = enPassantIndex;
+        undo.halfmoveClock = halfmoveClock;
+        undo.key = key;
+
+        clearPiece(start);
+        if (victim != null) {
+            clearPiece(victimIndex);
+        }
+        if (promotionType != null) {
+            setPiece(end, new ChessPiece(piece.player, promotionType));
         } else {
-            board[end] = piece;
+            setPiece(end, piece);
         }
-        pieceMasks[color.ordinal()] |= endMask;
-        pieceMasks[opponentColor.ordinal()] &= BitBoard.clearLocationMasks[end];
         if (rookStart >= 0) {
             var rook = board[rookStart];
-            board[rookStart] = null;
-            pieceMasks[color.ordinal()] &= BitBoard.clearLocationMasks[rookStart];
-            board[rookEnd] = rook;
-            pieceMasks[color.ordinal()] |= BitBoard.setLocationMasks[rookEnd];
+            clearPiece(rookStart);
+            setPiece(rookEnd, rook);
         }
 
+        /* Take the castling rights out of the key while they are updated */
+        key ^= getCastleKey();
+
         /* Can't castle once king has moved */
         if (piece.type == PieceType.KING) {
             canCastleKingside[color.ordinal()] = false;
@@ -481,10 +888,10 @@ public class ChessState {
         /* Can't castle once rooks have moved */
         else if (piece.type == PieceType.ROOK) {
             int baseRank = color == Color.WHITE ? 0 : 7;
-            if (r0 == baseRank) {
-                if (f0 == 0) {
+            if (getRank(start) == baseRank) {
+                if (getFile(start) == 0) {
                     canCastleQueenside[color.ordinal()] = false;
-                } else if (f0 == 7) {
+                } else if (getFile(start) == 7) {
                     canCastleKingside[color.ordinal()] = false;
                 }
             }
@@ -492,18 +899,24 @@ public class ChessState {
         /* Can't castle once the rooks have been captured */
         else if (victim != null && victim.type == PieceType.ROOK) {
             int baseRank = opponentColor == Color.WHITE ? 0 : 7;
-            if (r1 == baseRank) {
-                if (f1 == 0) {
+            if (getRank(end) == baseRank) {
+                if (getFile(end) == 0) {
                     canCastleQueenside[opponentColor.ordinal()] = false;
-                } else if (f1 == 7) {
+                } else if (getFile(end) == 7) {
                     canCastleKingside[opponentColor.ordinal()] = false;
                 }
             }
         }
 
+        key ^= getCastleKey();
+
         /* Pawn square moved over is vulnerable */
-        if (piece.type == PieceType.PAWN && overMask != 0) {
-            enPassantIndex = getIndex((r0 + r1) / 2, f0);
+        if (enPassantIndex >= 0) {
+            key ^= Zobrist.enPassantKeys[enPassantIndex];
+        }
+        if (piece.type == PieceType.PAWN && Math.abs(end - start) == 16) {
+            enPassantIndex = (start + end) / 2;
+            key ^= Zobrist.enPassantKeys[enPassantIndex];
         } else {
             enPassantIndex = -1;
         }
@@ -514,60 +927,44 @@ public class ChessState {
         } else {
             halfmoveClock++;
         }
+    }
 
-        /* Test if this move would leave that player in check */
-        boolean result = true;
-        if (testCheck && isInCheck(player)) {
-            result = false;
+    private void revertMove(ChessUndo undo) {
+        if (undo.rookStart >= 0) {
+            var rook = board[undo.rookEnd];
+            clearPiece(undo.rookEnd);
+            setPiece(undo.rookStart, rook);
         }
-
-        /* Undo move */
-        if (!apply || !result) {
-            board[start] = piece;
-            board[end] = null;
-            if (victim != null) {
-                board[victimIndex] = victim;
-            }
-            if (rookStart >= 0) {
-                var rook = board[rookEnd];
-                board[rookStart] = rook;
-                board[rookEnd] = null;
-            }
-            pieceMasks[Color.WHITE.ordinal()] = oldWhiteMask;
-            pieceMasks[Color.BLACK.ordinal()] = oldBlackMask;
-            canCastleKingside[Color.WHITE.ordinal()] = oldWhiteCanCastleKingside;
-            canCastleQueenside[Color.WHITE.ordinal()] = oldWhiteCanCastleQueenside;
-            canCastleKingside[Color.BLACK.ordinal()] = oldBlackCanCastleKingside;
-            canCastleQueenside[Color.BLACK.ordinal()] = oldBlackCanCastleQueenside;
-            enPassantIndex = OldEnPassantIndex;
-            halfmoveClock = OldHalfmoveClock;
-
-            return result;
+        clearPiece(undo.end);
+        setPiece(undo.start, undo.piece);
+        if (undo.victim != null) {
+            setPiece(undo.victimIndex, undo.victim);
         }
 
-        currentPlayer = color == Color.WHITE ? players[Color.BLACK.ordinal()] : players[Color.WHITE.ordinal()];
-        checkState = getCheckState(currentPlayer);
+        setCastling(undo.castling);
+        enPassantIndex = undo.enPassantIndex;
+        halfmoveClock = undo.halfmoveClock;
+        key = undo.key;
+    }
 
-        lastMove = new ChessMove();
-        lastMove.number = number;
-        lastMove.piece = piece;
-        if (isPromotion) {
-            lastMove.promotionPiece = board[end];
-        }
-        lastMove.victim = victim;
-        if (rookEnd >= 0) {
-            lastMove.castlingRook = board[rookEnd];
+    private int getCastling() {
+        int castling = 0;
+        for (var color : Color.values()) {
+            if (canCastleKingside[color.ordinal()]) {
+                castling |= 1 << (color.ordinal() * 2);
+            }
+            if (canCastleQueenside[color.ordinal()]) {
+                castling |= 2 << (color.ordinal() * 2);
+            }
         }
-        lastMove.r0 = r0;
-        lastMove.f0 = f0;
-        lastMove.r1 = r1;
-        lastMove.f1 = f1;
-        lastMove.ambiguousRank = ambiguousRank;
-        lastMove.ambiguousFile = ambiguousFile;
-        lastMove.enPassant = enPassant;
-        lastMove.checkState = checkState;
+        return castling;
+    }
 
-        return true;
+    private void setCastling(int castling) {
+        for (var color : Color.values()) {
+            canCastleKingside[color.ordinal()] = (castling & (1 << (color.ordinal() * 2))) != 0;
+            canCastleQueenside[color.ordinal()] = (castling & (2 << (color.ordinal() * 2))) != 0;
+        }
     }
 
     public ChessResult getResult(Out<ChessRule> rule) {
@@ -595,389 +992,780 @@ public class ChessState {
         return ChessResult.IN_PROGRESS;
     }
 
-    private CheckState getCheckState(ChessPlayer player) {
-        if (isInCheck(player)) {
-            if (isInCheckmate(player)) {
-                return CheckState.CHECKMATE;
-            } else {
-                return CheckState.CHECK;
+    /*
+     * Work out the check state of the player on move, given the pieces checking
+     * them. The pinned pieces are found at the same time so the checkmate test and
+     * later move generation can use them.
+     */
+    private void updateCheckState(long checkers) {
+        this.checkers = checkers;
+        pinned = getPinned(currentPlayer.color);
+
+        if (checkers == 0) {
+            checkState = CheckState.NONE;
+        } else if (generateMoves(currentPlayer, null, true) == 0) {
+            checkState = CheckState.CHECKMATE;
+        } else {
+            checkState = CheckState.CHECK;
+        }
+    }
+
+    /* Pieces giving check to the king(s) of the given color */
+    private long getCheckers(Color color) {
+        var opponentColor = color == Color.WHITE ? Color.BLACK : Color.WHITE;
+        long allMask = pieceMasks[Color.WHITE.ordinal()] | pieceMasks[Color.BLACK.ordinal()];
+
+        long checkers = 0;
+        for (long kings = getPieceMask(color, PieceType.KING); kings != 0; kings &= kings - 1) {
+            checkers |= getAttackers(Long.numberOfTrailingZeros(kings), opponentColor, allMask);
+        }
+        return checkers;
+    }
+
+    /*
+     * Pieces giving check after the given move was applied. Only the moved pieces
+     * and sliders behind the squares they left can be checking, so there is no
+     * need to look at the other pieces.
+     */
+    private long getCheckersAfterMove(ChessUndo undo) {
+        var color = undo.piece.getColor();
+        var opponentColor = color == Color.WHITE ? Color.BLACK : Color.WHITE;
+        long kings = getPieceMask(opponentColor, PieceType.KING);
+        if (Long.bitCount(kings) != 1) {
+            return getCheckers(opponentColor);
+        }
+        int kingIndex = Long.numberOfTrailingZeros(kings);
+        long allMask = pieceMasks[Color.WHITE.ordinal()] | pieceMasks[Color.BLACK.ordinal()];
+
+        /* Direct check from the moved piece (or what it was promoted to) */
+        long checkers = 0;
+        if ((getAttacks(undo.end, allMask) & kings) != 0) {
+            checkers |= BitBoard.setLocationMasks[undo.end];
+        }
+        if (undo.rookEnd >= 0 && (BitBoard.getRookAttacks(undo.rookEnd, allMask) & kings) != 0) {
+            checkers |= BitBoard.setLocationMasks[undo.rookEnd];
+        }
+
+        /* Discovered check through the squares that were left */
+        long vacated = BitBoard.setLocationMasks[undo.start];
+        if (undo.victim != null && undo.victimIndex != undo.end) {
+            vacated |= BitBoard.setLocationMasks[undo.victimIndex];
+        }
+        if (undo.rookStart >= 0) {
+            vacated |= BitBoard.setLocationMasks[undo.rookStart];
+        }
+        long queens = getPieceMask(color, PieceType.QUEEN);
+        if ((BitBoard.getRookAttacks(kingIndex, 0) & vacated) != 0) {
+            checkers |= BitBoard.getRookAttacks(kingIndex, allMask) & (getPieceMask(color, PieceType.ROOK) | queens);
+        }
+        if ((BitBoard.getBishopAttacks(kingIndex, 0) & vacated) != 0) {
+            checkers |= BitBoard.getBishopAttacks(kingIndex, allMask)
+                    & (getPieceMask(color, PieceType.BISHOP) | queens);
+        }
+
+        return checkers;
+    }
+
+    /* Pieces of the given color that are pinned to their king */
+    private long getPinned(Color color) {
+        var opponentColor = color == Color.WHITE ? Color.BLACK : Color.WHITE;
+        long kings = getPieceMask(color, PieceType.KING);
+        if (Long.bitCount(kings) != 1) {
+            return 0;
+        }
+        int kingIndex = Long.numberOfTrailingZeros(kings);
+        long ownMask = pieceMasks[color.ordinal()];
+        long opponentMask = pieceMasks[opponentColor.ordinal()];
+
+        /* Enemy sliders that would attack the king if our pieces were not in the way */
+        long queens = getPieceMask(opponentColor, PieceType.QUEEN);
+        long snipers = BitBoard.getRookAttacks(kingIndex, opponentMask)
+                & (getPieceMask(opponentColor, PieceType.ROOK) | queens);
+        snipers |= BitBoard.getBishopAttacks(kingIndex, opponentMask)
+                & (getPieceMask(opponentColor, PieceType.BISHOP) | queens);
+
+        /* Pinned if there is exactly one of our pieces between the slider and the king */
+        long pinned = 0;
+        for (; snipers != 0; snipers &= snipers - 1) {
+            long between = BitBoard.overMasks[Long.numberOfTrailingZeros(snipers) * 64 + kingIndex]
+                    & (ownMask | opponentMask);
+            if (Long.bitCount(between) == 1 && (between & ownMask) != 0) {
+                pinned |= between;
             }
         }
-        return CheckState.NONE;
+        return pinned;
     }
 
     public boolean isInCheck(ChessPlayer player) {
-        var opponent = player.color == Color.WHITE ? players[Color.BLACK.ordinal()] : players[Color.WHITE.ordinal()];
+        var color = player.color;
+        var opponentColor = color == Color.WHITE ? Color.BLACK : Color.WHITE;
 
         /* Is in check if any piece can take the king */
-        for (int kingIndex = 0; kingIndex < 64; kingIndex++) {
-            var p = board[kingIndex];
-            if (p != null && p.player == player && p.type == PieceType.KING) {
-                /* See if any enemy pieces can take the king */
-                for (int start = 0; start < 64; start++) {
-                    if (moveWithCoords(opponent, getRank(start), getFile(start), getRank(kingIndex), getFile(kingIndex),
-                            PieceType.QUEEN, false, false)) {
-                        return true;
-                    }
-                }
+        for (long kings = getPieceMask(color, PieceType.KING); kings != 0; kings &= kings - 1) {
+            if (isAttacked(Long.numberOfTrailingZeros(kings), opponentColor)) {
+                return true;
             }
         }
 
         return false;
     }
 
-    public boolean isInCheckmate(ChessPlayer player) {
-        /* Is in checkmate if no pieces can move */
-        for (int pieceIndex = 0; pieceIndex < 64; pieceIndex++) {
-            var p = board[pieceIndex];
-            if (p != null && p.player == player) {
-                for (int end = 0; end < 64; end++) {
-                    if (moveWithCoords(player, getRank(pieceIndex), getFile(pieceIndex), getRank(end), getFile(end),
-                            PieceType.QUEEN, false, true)) {
-                        return false;
-                    }
-                }
-            }
-        }
+    /* Check if any piece of the given color attacks a location */
+    public boolean isAttacked(int index, Color color) {
+        long allMask = pieceMasks[Color.WHITE.ordinal()] | pieceMasks[Color.BLACK.ordinal()];
+        return getAttackers(index, color, allMask) != 0;
+    }
 
-        return true;
+    /* Pieces of the given color attacking a location, with the given pieces on the board */
+    private long getAttackers(int index, Color color, long allMask) {
+        var opponentColor = color == Color.WHITE ? Color.BLACK : Color.WHITE;
+
+        /* Attacks are symmetric, so look from the location for each type of attacker */
+        long queens = getPieceMask(color, PieceType.QUEEN);
+        long attackers = BitBoard.getRookAttacks(index, allMask) & (getPieceMask(color, PieceType.ROOK) | queens);
+        attackers |= BitBoard.getBishopAttacks(index, allMask) & (getPieceMask(color, PieceType.BISHOP) | queens);
+        attackers |= BitBoard.knightAttackMasks[index] & getPieceMask(color, PieceType.KNIGHT);
+        attackers |= BitBoard.kingAttackMasks[index] & getPieceMask(color, PieceType.KING);
+        attackers |= BitBoard.pawnAttackMasks[opponentColor.ordinal() * 64 + index]
+                & getPieceMask(color, PieceType.PAWN);
+
+        return attackers;
     }
 
-    public boolean canMove(ChessPlayer player) {
-        boolean havePieces = false;
-
-        for (int start = 0; start < 64; start++) {
-            var p = board[start];
-            if (p != null && p.player == player) {
-                havePieces = true;
-
-                /* See if can move anywhere */
-                for (int end = 0; end < 64; end++) {
-                    if (moveWithCoords(player, getRank(start), getFile(start), getRank(end), getFile(end),
-                            PieceType.QUEEN, false, true)) {
-                        return true;
-                    }
-                }
-            }
+    /* Locations attacked by the piece on the given location */
+    private long getAttacks(int index, long allMask) {
+        var piece = board[index];
+        switch (piece.type) {
+            case PAWN:
+                return BitBoard.pawnAttackMasks[piece.getColor().ordinal() * 64 + index];
+            case ROOK:
+                return BitBoard.getRookAttacks(index, allMask);
+            case KNIGHT:
+                return BitBoard.knightAttackMasks[index];
+            case BISHOP:
+                return BitBoard.getBishopAttacks(index, allMask);
+            case QUEEN:
+                return BitBoard.getQueenAttacks(index, allMask);
+            case KING:
+                return BitBoard.kingAttackMasks[index];
+            default:
+                return 0;
         }
+    }
+
+    public boolean isInCheckmate(ChessPlayer player) {
+        /* Is in checkmate if no pieces can move */
+        return generateMoves(player, null, true) == 0;
+    }
 
+    public boolean canMove(ChessPlayer player) {
         /* Only mark as stalemate if have at least one piece */
-        if (havePieces) {
-            return false;
-        } else {
+        if (pieceMasks[player.color.ordinal()] == 0) {
             return true;
         }
+
+        return generateMoves(player, null, true) > 0;
     }
 
-    public boolean haveSufficientMaterial() {
-        var whiteKnightCount = 0;
-        var whiteBishopCount = 0;
-        var whiteBishopOnWhiteSquare = false;
-        var whiteBishopOnBlackSquare = false;
-        var blackKnightCount = 0;
-        var blackBishopCount = 0;
-        var blackBishopOnWhiteSquare = false;
-        var blackBishopOnBlackSquare = false;
+    public int getLegalMoves(int[] moves) {
+        return getLegalMoves(currentPlayer, moves);
+    }
 
-        for (int i = 0; i < 64; i++) {
-            var p = board[i];
-            if (p == null) {
-                continue;
+    /*
+     * Write the legal moves of the given player into moves (which should have room
+     * for MAX_MOVES) and return how many there are
+     */
+    public int getLegalMoves(ChessPlayer player, int[] moves) {
+        return generateMoves(player, moves, false);
+    }
+
+    private int generateMoves(ChessPlayer player, int[] moves, boolean firstOnly) {
+        var color = player.color;
+        var opponentColor = color == Color.WHITE ? Color.BLACK : Color.WHITE;
+        long ownMask = pieceMasks[color.ordinal()];
+        long opponentMask = pieceMasks[opponentColor.ordinal()];
+        long allMask = ownMask | opponentMask;
+        int count = 0;
+
+        /* Checks and pins are already known for the player on move */
+        long checkers = player == currentPlayer ? this.checkers : getCheckers(color);
+        long pinned = player == currentPlayer ? this.pinned : getPinned(color);
+
+        /* Without exactly one king the shortcuts below don't hold, so try each move instead */
+        long kings = getPieceMask(color, PieceType.KING);
+        boolean tryMoves = Long.bitCount(kings) != 1;
+        int kingIndex = Long.numberOfTrailingZeros(kings);
+
+        /* When in check other pieces must take the checking piece or block it */
+        long evasionMask = ~0L;
+        if (checkers != 0 && !tryMoves) {
+            if (Long.bitCount(checkers) > 1) {
+                evasionMask = 0;
+            } else {
+                evasionMask = checkers | BitBoard.overMasks[Long.numberOfTrailingZeros(checkers) * 64 + kingIndex];
             }
+        }
 
-            /* Any pawns, rooks or queens can perform checkmate */
-            if (p.type == PieceType.PAWN || p.type == PieceType.ROOK || p.type == PieceType.QUEEN) {
-                return true;
+        for (long pieces = ownMask; pieces != 0; pieces &= pieces - 1) {
+            int start = Long.numberOfTrailingZeros(pieces);
+            var piece = board[start];
+            long startMask = BitBoard.setLocationMasks[start];
+
+            /* Only try the squares this piece attacks that are not our own */
+            long targets;
+            switch (piece.type) {
+                case ROOK:
+                    targets = BitBoard.getRookAttacks(start, allMask);
+                    break;
+                case BISHOP:
+                    targets = BitBoard.getBishopAttacks(start, allMask);
+                    break;
+                case QUEEN:
+                    targets = BitBoard.getQueenAttacks(start, allMask);
+                    break;
+                default:
+                    targets = BitBoard.moveMasks[color.ordinal() * 64 * 6 + piece.type.ordinal() * 64 + start];
+                    break;
             }
+            targets &= ~ownMask;
+            for (; targets != 0; targets &= targets - 1) {
+                int end = Long.numberOfTrailingZeros(targets);
+                long endMask = BitBoard.setLocationMasks[end];
 
-            /* Otherwise, count the minor pieces for each colour... */
-            if (p.type == PieceType.KNIGHT) {
-                if (p.getColor() == Color.WHITE) {
-                    whiteKnightCount++;
+                /* Check no pieces in the way of pawn marches and castling */
+                if ((BitBoard.overMasks[start * 64 + end] & allMask) != 0) {
+                    continue;
+                }
+
+                /* Pawns only move forward onto empty squares and diagonally onto victims */
+                boolean enPassant = false;
+                if (piece.type == PieceType.PAWN) {
+                    if (getFile(start) == getFile(end)) {
+                        if ((allMask & endMask) != 0) {
+                            continue;
+                        }
+                    } else if ((opponentMask & endMask) == 0) {
+                        if (end != enPassantIndex) {
+                            continue;
+                        }
+                        enPassant = true;
+                    }
+                }
+
+                boolean isLegal;
+                if (tryMoves || enPassant || (piece.type == PieceType.KING && Math.abs(start - end) == 2)) {
+                    /*
+                     * Leave castling and en passant, which can uncover the king along the rank, to
+                     * the rules
+                     */
+                    isLegal = moveWithCoords(player, getRank(start), getFile(start), getRank(end), getFile(end),
+                            PieceType.QUEEN, false, true);
+                } else if (piece.type == PieceType.KING) {
+                    /* King can't move onto an attacked square, or along the line it is checked on */
+                    isLegal = getAttackers(end, opponentColor, allMask & ~startMask) == 0;
+                } else if ((evasionMask & endMask) == 0) {
+                    isLegal = false;
+                } else if ((pinned & startMask) != 0) {
+                    /* Pinned pieces can only move along the line to their king */
+                    isLegal = (BitBoard.overMasks[kingIndex * 64 + end] & startMask) != 0
+                            || (BitBoard.overMasks[kingIndex * 64 + start] & endMask) != 0;
                 } else {
-                    blackKnightCount++;
+                    isLegal = true;
+                }
+                if (!isLegal) {
+                    continue;
                 }
-            }
 
-            if (p.type == PieceType.BISHOP) {
-                var color = Color.BLACK;
-                if ((i + i / 8) % 2 != 0) {
-                    color = Color.WHITE;
+                if (firstOnly) {
+                    return 1;
                 }
 
-                if (p.getColor() == Color.WHITE) {
-                    if (color == Color.WHITE) {
-                        whiteBishopOnWhiteSquare = true;
-                    } else {
-                        whiteBishopOnBlackSquare = true;
+                int flags = 0;
+                if (enPassant) {
+                    flags = PackedMove.CAPTURE | PackedMove.EN_PASSANT;
+                } else if ((opponentMask & endMask) != 0) {
+                    flags = PackedMove.CAPTURE;
+                } else if (piece.type == PieceType.KING && Math.abs(start - end) == 2) {
+                    flags = PackedMove.CASTLING;
+                }
+                if (piece.type == PieceType.PAWN && (getRank(end) == 0 || getRank(end) == 7)) {
+                    for (var promotionType : promotionTypes) {
+                        moves[count++] = PackedMove.encode(start, end, promotionType, flags);
                     }
-                    whiteBishopCount++;
                 } else {
-                    if (color == Color.WHITE) {
-                        blackBishopOnWhiteSquare = true;
-                    } else {
-                        blackBishopOnBlackSquare = true;
-                    }
-                    blackBishopCount++;
-                }
-            }
-
-            /*
-             * We count the following positions as insufficient:
-             *
-             * 1) king versus king 2) king and bishop versus king 3) king and knight versus
-             * king 4) king and bishop versus king and bishop with the bishops on the same
-             * color. (Any number of additional bishops of either color on the same color of
-             * square due to underpromotion do not affect the situation.)
-             *
-             * From: https://en.wikipedia.org/wiki/Draw_(chess)#Draws_in_all_games
-             *
-             * Note also that this follows FIDE rules, not USCF rules. E.g. K+N+N vs. K
-             * cannot be forced, so it's not counted as a draw.
-             *
-             * This is also what CECP engines will be expecting:
-             *
-             * "Note that (in accordance with FIDE rules) only KK, KNK, KBK and KBKB with
-             * all bishops on the same color can be claimed as draws on the basis of
-             * insufficient mating material. The end-games KNNK, KBKN, KNKN and KBKB with
-             * unlike bishops do have mate positions, and cannot be claimed. Complex draws
-             * based on locked Pawn chains will not be recognized as draws by most
-             * interfaces, so do not claim in such positions, but just offer a draw or play
-             * on."
-             *
-             * From: http://www.open-aurec.com/wbforum/WinBoard/engine-intf.html
-             *
-             * (In contrast, UCI seems to expect the interface to handle draws itself.)
-             */
-
-            /*
-             * Two knights versus king can checkmate (though not against an optimal
-             * opponent)
-             */
-            if (whiteKnightCount > 1 || blackKnightCount > 1) {
-                return true;
+                    moves[count++] = PackedMove.encode(start, end, null, flags);
+                }
             }
+        }
 
-            /* Bishop and knight versus king can checkmate */
-            if (whiteBishopCount > 0 && whiteKnightCount > 0) {
-                return true;
-            }
-            if (blackBishopCount > 0 && blackKnightCount > 0) {
-                return true;
-            }
+        return count;
+    }
 
-            /*
-             * King and bishops versus king can checkmate as long as the bishops are on both
-             * colours
-             */
-            if (whiteBishopOnWhiteSquare && whiteBishopOnBlackSquare) {
-                return true;
-            }
-            if (blackBishopOnWhiteSquare && blackBishopOnBlackSquare) {
+    /*
+     * Count the positions reached after the given number of plies, playing every
+     * legal move. Comparing with published counts verifies the move rules.
+     */
+    public long perft(int depth) {
+        if (depth <= 0) {
+            return 1;
+        }
+
+        int[][] moves = new int[depth][MAX_MOVES];
+        ChessUndo[] undos = new ChessUndo[depth];
+        for (int i = 0; i < depth; i++) {
+            undos[i] = new ChessUndo();
+        }
+        return perft(depth, moves, undos);
+    }
+
+    private long perft(int depth, int[][] moves, ChessUndo[] undos) {
+        var buffer = moves[depth - 1];
+        var n = getLegalMoves(buffer);
+
+        /* No need to make the moves on the last ply */
+        if (depth == 1) {
+            return n;
+        }
+
+        long count = 0;
+        var undo = undos[depth - 1];
+        for (int i = 0; i < n; i++) {
+            makeMove(buffer[i], undo);
+            count += perft(depth - 1, moves, undos);
+            unmakeMove(undo);
+        }
+        return count;
+    }
+
+    /* Perft count below each legal move, keyed by the move in engine notation */
+    public Map<String, Long> divide(int depth) {
+        var counts = new LinkedHashMap<String, Long>();
+        if (depth <= 0) {
+            return counts;
+        }
+
+        int[] moves = new int[MAX_MOVES];
+        var n = getLegalMoves(moves);
+        var undo = new ChessUndo();
+        for (int i = 0; i < n; i++) {
+            makeMove(moves[i], undo);
+            counts.put(PackedMove.getEngine(moves[i]), perft(depth - 1));
+            unmakeMove(undo);
+        }
+        return counts;
+    }
+
+    public boolean haveSufficientMaterial() {
+        /* Any pawns, rooks or queens can perform checkmate */
+        for (var color : Color.values()) {
+            if ((getPieceMask(color, PieceType.PAWN) | getPieceMask(color, PieceType.ROOK)
+                    | getPieceMask(color, PieceType.QUEEN)) != 0) {
                 return true;
             }
+        }
+
+        /* Otherwise, count the minor pieces for each colour... */
+        var whiteBishops = getPieceMask(Color.WHITE, PieceType.BISHOP);
+        var blackBishops = getPieceMask(Color.BLACK, PieceType.BISHOP);
+        var whiteKnightCount = Long.bitCount(getPieceMask(Color.WHITE, PieceType.KNIGHT));
+        var whiteBishopCount = Long.bitCount(whiteBishops);
+        var whiteBishopOnWhiteSquare = (whiteBishops & BitBoard.whiteSquaresMask) != 0;
+        var whiteBishopOnBlackSquare = (whiteBishops & ~BitBoard.whiteSquaresMask) != 0;
+        var blackKnightCount = Long.bitCount(getPieceMask(Color.BLACK, PieceType.KNIGHT));
+        var blackBishopCount = Long.bitCount(blackBishops);
+        var blackBishopOnWhiteSquare = (blackBishops & BitBoard.whiteSquaresMask) != 0;
+        var blackBishopOnBlackSquare = (blackBishops & ~BitBoard.whiteSquaresMask) != 0;
+
+        /*
+         * We count the following positions as insufficient:
+         *
+         * 1) king versus king 2) king and bishop versus king 3) king and knight versus
+         * king 4) king and bishop versus king and bishop with the bishops on the same
+         * color. (Any number of additional bishops of either color on the same color of
+         * square due to underpromotion do not affect the situation.)
+         *
+         * From: https://en.wikipedia.org/wiki/Draw_(chess)#Draws_in_all_games
+         *
+         * Note also that this follows FIDE rules, not USCF rules. E.g. K+N+N vs. K
+         * cannot be forced, so it's not counted as a draw.
+         *
+         * This is also what CECP engines will be expecting:
+         *
+         * "Note that (in accordance with FIDE rules) only KK, KNK, KBK and KBKB with
+         * all bishops on the same color can be claimed as draws on the basis of
+         * insufficient mating material. The end-games KNNK, KBKN, KNKN and KBKB with
+         * unlike bishops do have mate positions, and cannot be claimed. Complex draws
+         * based on locked Pawn chains will not be recognized as draws by most
+         * interfaces, so do not claim in such positions, but just offer a draw or play
+         * on."
+         *
+         * From: http://www.open-aurec.com/wbforum/WinBoard/engine-intf.html
+         *
+         * (In contrast, UCI seems to expect the interface to handle draws itself.)
+         */
 
-            /* King and minor piece vs. King and knight is surprisingly not a draw */
-            if ((whiteBishopCount > 0 || whiteKnightCount > 0) && blackKnightCount > 0) {
+        /*
+         * Two knights versus king can checkmate (though not against an optimal
+         * opponent)
+         */
+        if (whiteKnightCount > 1 || blackKnightCount > 1) {
+            return true;
+        }
+
+        /* Bishop and knight versus king can checkmate */
+        if (whiteBishopCount > 0 && whiteKnightCount > 0) {
+            return true;
+        }
+        if (blackBishopCount > 0 && blackKnightCount > 0) {
+            return true;
+        }
+
+        /*
+         * King and bishops versus king can checkmate as long as the bishops are on both
+         * colours
+         */
+        if (whiteBishopOnWhiteSquare && whiteBishopOnBlackSquare) {
+            return true;
+        }
+        if (blackBishopOnWhiteSquare && blackBishopOnBlackSquare) {
+            return true;
+        }
+
+        /* King and minor piece vs. King and knight is surprisingly not a draw */
+        if ((whiteBishopCount > 0 || whiteKnightCount > 0) && blackKnightCount > 0) {
+            return true;
+        }
+        if ((blackBishopCount > 0 || blackKnightCount > 0) && whiteKnightCount > 0) {
+            return true;
+        }
+
+        /*
+         * King and bishop can checkmate vs. king and bishop if bishops are on opposite
+         * colors
+         */
+        if (whiteBishopCount > 0 && blackBishopCount > 0) {
+            if (whiteBishopOnWhiteSquare && blackBishopOnBlackSquare) {
                 return true;
-            }
-            if ((blackBishopCount > 0 || blackKnightCount > 0) && whiteKnightCount > 0) {
+            } else if (whiteBishopOnBlackSquare && blackBishopOnWhiteSquare) {
                 return true;
             }
-
-            /*
-             * King and bishop can checkmate vs. king and bishop if bishops are on opposite
-             * colors
-             */
-            if (whiteBishopCount > 0 && blackBishopCount > 0) {
-                if (whiteBishopOnWhiteSquare && blackBishopOnBlackSquare) {
-                    return true;
-                } else if (whiteBishopOnBlackSquare && blackBishopOnWhiteSquare) {
-                    return true;
-                }
-            }
         }
 
         return false;
     }
 
-    private static boolean decodePieceType(char c, Out<PieceType> type) {
-        type.value = PieceType.PAWN;
+    private static PieceType decodePieceType(char c) {
         switch (c) {
             case 'P':
-                type.value = PieceType.PAWN;
-                return true;
+                return PieceType.PAWN;
             case 'R':
-                type.value = PieceType.ROOK;
-                return true;
+                return PieceType.ROOK;
             case 'N':
-                type.value = PieceType.KNIGHT;
-                return true;
+                return PieceType.KNIGHT;
             case 'B':
-                type.value = PieceType.BISHOP;
-                return true;
+                return PieceType.BISHOP;
             case 'Q':
-                type.value = PieceType.QUEEN;
-                return true;
+                return PieceType.QUEEN;
             case 'K':
-                type.value = PieceType.KING;
-                return true;
+                return PieceType.KING;
             default:
-                return false;
+                return null;
         }
     }
 
-    private boolean decodeMove(ChessPlayer player, String move, Out<Integer> r0, Out<Integer> f0, Out<Integer> r1,
-            Out<Integer> f1, Out<PieceType> promotionType) {
-        int i = 0;
+    public int decodeSan(CharSequence move) {
+        return decodeSan(move, 0, move.length());
+    }
 
-        promotionType.value = PieceType.QUEEN;
-        if (move.startsWith("O-O-O")) {
-            if (player.color == Color.WHITE) {
-                r0.value = r1.value = 0;
+    /*
+     * The move of the current player written between start and end of text in SAN,
+     * or in the coordinate forms (e2e4, e2-e4, e7e8q) also accepted, as a packed
+     * move. PackedMove.NONE if it isn't a legal move. The piece moved is found
+     * from the attacks on the destination by pieces of its type, so nothing is
+     * allocated.
+     */
+    public int decodeSan(CharSequence text, int start, int end) {
+        var color = currentPlayer.color;
+        var i = start;
+        var type = PieceType.PAWN;
+        var promotionType = PieceType.QUEEN;
+        int r0 = -1, f0 = -1, r1 = -1, f1 = -1;
+
+        if (startsWith(text, i, end, "O-O")) {
+            r0 = r1 = color == Color.WHITE ? 0 : 7;
+            f0 = 4;
+            if (startsWith(text, i, end, "O-O-O")) {
+                f1 = 2;
+                i += "O-O-O".length();
             } else {
-                r0.value = r1.value = 7;
-            }
-            f0.value = 4;
-            f1.value = 2;
-            i += "O-O-O".length();
-        } else if (move.startsWith("O-O")) {
-            if (player.color == Color.WHITE) {
-                r0.value = r1.value = 0;
-            } else {
-                r0.value = r1.value = 7;
+                f1 = 6;
+                i += "O-O".length();
             }
-            f0.value = 4;
-            f1.value = 6;
-            i += "O-O".length();
         } else {
-            Out<PieceType> type = new Out<>(PieceType.PAWN);
-            if (move.length() > i && decodePieceType(move.charAt(i), type)) {
+            if (i < end && decodePieceType(text.charAt(i)) != null) {
+                type = decodePieceType(text.charAt(i));
                 i++;
             }
-
-            r0.value = f0.value = r1.value = f1.value = -1;
-            if (move.length() > i && move.charAt(i) >= 'a' && move.charAt(i) <= 'h') {
-                f1.value = move.charAt(i) - 'a';
+            if (i < end && text.charAt(i) >= 'a' && text.charAt(i) <= 'h') {
+                f1 = text.charAt(i) - 'a';
                 i++;
             }
-            if (move.length() > i && move.charAt(i) >= '1' && move.charAt(i) <= '8') {
-                r1.value = move.charAt(i) - '1';
+            if (i < end && text.charAt(i) >= '1' && text.charAt(i) <= '8') {
+                r1 = text.charAt(i) - '1';
                 i++;
             }
-            if (move.length() > i && (move.charAt(i) == 'x' || move.charAt(i) == '-')) {
+            if (i < end && (text.charAt(i) == 'x' || text.charAt(i) == '-')) {
                 i++;
             }
-            if (move.length() > i && move.charAt(i) >= 'a' && move.charAt(i) <= 'h') {
-                f0.value = f1.value;
-                f1.value = move.charAt(i) - 'a';
+            if (i < end && text.charAt(i) >= 'a' && text.charAt(i) <= 'h') {
+                f0 = f1;
+                f1 = text.charAt(i) - 'a';
                 i++;
             }
-            if (move.length() > i && move.charAt(i) >= '1' && move.charAt(i) <= '8') {
-                r0.value = r1.value;
-                r1.value = move.charAt(i) - '1';
+            if (i < end && text.charAt(i) >= '1' && text.charAt(i) <= '8') {
+                r0 = r1;
+                r1 = text.charAt(i) - '1';
                 i++;
             }
-            if (move.length() > i && move.charAt(i) == '=') {
+            if (i < end && text.charAt(i) == '=') {
                 i++;
-                if (move.length() > i && decodePieceType(move.charAt(i), promotionType)) {
+                if (i < end && decodePieceType(text.charAt(i)) != null) {
+                    promotionType = decodePieceType(text.charAt(i));
+                    i++;
+                }
+            } else if (i < end) {
+                var promotion = decodePieceType(Character.toUpperCase(text.charAt(i)));
+                if (promotion != null && promotion != PieceType.PAWN && promotion != PieceType.KING) {
+                    promotionType = promotion;
                     i++;
                 }
-            } else if (move.length() > i) {
-                switch (move.charAt(i)) {
-                    case 'q':
-                        // Fall through
-                    case 'Q':
-                        promotionType.value = PieceType.QUEEN;
-                        i++;
-                        break;
-                    case 'n':
-                        // Fall through
-                    case 'N':
-                        promotionType.value = PieceType.KNIGHT;
-                        i++;
-                        break;
-                    case 'r':
-                        // Fall through
-                    case 'R':
-                        promotionType.value = PieceType.ROOK;
-                        i++;
-                        break;
-                    case 'b':
-                        // Fall through
-                    case 'B':
-                        promotionType.value = PieceType.BISHOP;
-                        i++;
-                        break;
-                    default:
-                        break;
-                }
-            }
-
-            /* Don't have a destination to move to */
-            if (r1.value < 0 || f1.value < 0) {
-                debug("Move %s missing destination", move);
-                return false;
             }
+        }
 
-            /* Find source piece */
-            if (r0.value < 0 || f0.value < 0) {
-                int matchRank = -1;
-                int matchFile = -1;
+        /* Don't have a destination to move to */
+        if (r1 < 0 || f1 < 0) {
+            debug("Move %s missing destination", text.subSequence(start, end));
+            return PackedMove.NONE;
+        }
 
-                for (int file = 0; file < 8; file++) {
-                    if (f0.value >= 0 && file != f0.value) {
-                        continue;
-                    }
+        if (i < end && (text.charAt(i) == '+' || text.charAt(i) == '#')) {
+            i++;
+        }
+        if (i < end) {
+            debug("Move %s has unexpected characters", text.subSequence(start, end));
+            return PackedMove.NONE;
+        }
+        var target = getIndex(r1, f1);
+
+        /* Source given in full, as for castling and coordinate moves */
+        var source = -1;
+        if (r0 >= 0 && f0 >= 0) {
+            if (!moveWithCoords(currentPlayer, r0, f0, r1, f1, PieceType.QUEEN, false, true)) {
+                debug("Move %s has no matches", text.subSequence(start, end));
+                return PackedMove.NONE;
+            }
+            source = getIndex(r0, f0);
+        } else {
+            long candidates = getPieceMask(color, type) & getSources(type, target);
+            if (f0 >= 0) {
+                candidates &= BitBoard.getFileMask(f0);
+            }
+            if (r0 >= 0) {
+                candidates &= BitBoard.getRankMask(r0);
+            }
+            if ((pieceMasks[color.ordinal()] & BitBoard.setLocationMasks[target]) != 0) {
+                candidates = 0;
+            }
 
-                    for (int rank = 0; rank < 8; rank++) {
-                        if (r0.value >= 0 && rank != r0.value) {
-                            continue;
-                        }
+            for (; candidates != 0; candidates &= candidates - 1) {
+                var index = Long.numberOfTrailingZeros(candidates);
+                if (!isLegalMove(index, target)) {
+                    continue;
+                }
 
-                        /* Only check this players pieces of the correct type */
-                        var piece = board[getIndex(rank, file)];
-                        if (piece == null || piece.type != type.value || piece.player != player) {
-                            continue;
-                        }
+                /* Duplicate match */
+                if (source >= 0) {
+                    debug("Move %s is ambiguous", text.subSequence(start, end));
+                    return PackedMove.NONE;
+                }
+                source = index;
+            }
 
-                        /* See if can move here */
-                        if (!this.moveWithCoords(player, rank, file, r1.value, f1.value, PieceType.QUEEN, false)) {
-                            continue;
-                        }
+            if (source < 0) {
+                debug("Move %s has no matches", text.subSequence(start, end));
+                return PackedMove.NONE;
+            }
+        }
 
-                        /* Duplicate match */
-                        if (matchRank >= 0) {
-                            debug("Move %s is ambiguous", move);
-                            return false;
-                        }
+        var isPromotion = board[source].type == PieceType.PAWN && (r1 == 0 || r1 == 7);
+        return PackedMove.encode(source, target, isPromotion ? promotionType : null, getMoveFlags(source, target));
+    }
 
-                        matchRank = rank;
-                        matchFile = file;
-                    }
-                }
+    /* PackedMove flags of moving the piece on start to end */
+    private int getMoveFlags(int start, int end) {
+        var piece = board[start];
+        if (board[end] != null) {
+            return PackedMove.CAPTURE;
+        } else if (piece.type == PieceType.PAWN && end == enPassantIndex) {
+            return PackedMove.CAPTURE | PackedMove.EN_PASSANT;
+        } else if (piece.type == PieceType.KING && Math.abs(getFile(start) - getFile(end)) > 1) {
+            return PackedMove.CASTLING;
+        }
+        return 0;
+    }
 
-                if (matchRank < 0) {
-                    debug("Move %s has no matches", move);
-                    return false;
+    /*
+     * The legal move of the current player as the ChessMove lastMove would be
+     * after making it, including SAN disambiguation and check state. The position
+     * is left as it was.
+     */
+    public ChessMove toChessMove(int move) {
+        var start = PackedMove.getStart(move);
+        var end = PackedMove.getEnd(move);
+        var piece = board[start];
+
+        var chessMove = new ChessMove();
+        chessMove.number = number;
+        chessMove.piece = piece;
+        chessMove.r0 = getRank(start);
+        chessMove.f0 = getFile(start);
+        chessMove.r1 = getRank(end);
+        chessMove.f1 = getFile(end);
+        chessMove.victim = board[end];
+        switch (piece.type) {
+            case PAWN:
+                if (chessMove.victim == null && end == enPassantIndex) {
+                    chessMove.enPassant = true;
+                    chessMove.victim = board[getIndex(chessMove.r1 == 2 ? 3 : 4, chessMove.f1)];
+                }
+                if (chessMove.r1 == 0 || chessMove.r1 == 7) {
+                    var promotionType = PackedMove.getPromotionType(move);
+                    chessMove.promotionPiece = new ChessPiece(piece.player,
+                            promotionType != null ? promotionType : PieceType.QUEEN);
+                }
+                /* Always show the file of a pawn capturing */
+                chessMove.ambiguousFile = chessMove.victim != null;
+                break;
+            case KING:
+                if (Math.abs(chessMove.f0 - chessMove.f1) > 1) {
+                    chessMove.castlingRook = board[getIndex(chessMove.r0, chessMove.f1 > chessMove.f0 ? 7 : 0)];
                 }
+                break;
+            default:
+                break;
+        }
 
-                r0.value = matchRank;
-                f0.value = matchFile;
+        /* Other pieces of the same type that can make this move */
+        long others = getPieceMask(currentPlayer.color, piece.type) & getSources(piece.type, end)
+                & BitBoard.clearLocationMasks[start];
+        for (; others != 0; others &= others - 1) {
+            var index = Long.numberOfTrailingZeros(others);
+            if (!isLegalMove(index, end)) {
+                continue;
+            }
+            if (getRank(index) != chessMove.r0) {
+                chessMove.ambiguousRank = true;
+            }
+            if (getFile(index) != chessMove.f0) {
+                chessMove.ambiguousFile = true;
             }
         }
 
-        if (move.length() > i && move.charAt(i) == '+') {
-            i++;
-        } else if (move.length() > i && move.charAt(i) == '#') {
-            i++;
-        }
+        makeMove(move, chessMoveUndo);
+        chessMove.checkState = checkState;
+        unmakeMove(chessMoveUndo);
+
+        return chessMove;
+    }
 
-        if (i < move.length()) {
-            debug("Move %s has unexpected characters", move);
+    private static boolean startsWith(CharSequence text, int start, int end, String prefix) {
+        if (end - start < prefix.length()) {
             return false;
         }
+        for (var i = 0; i < prefix.length(); i++) {
+            if (text.charAt(start + i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * Squares a piece of the given type of the current player could move to target
+     * from. Kings are left to isLegalMove, which knows about castling.
+     */
+    private long getSources(PieceType type, int target) {
+        var color = currentPlayer.color;
+        var opponentColor = color == Color.WHITE ? Color.BLACK : Color.WHITE;
+        long allMask = pieceMasks[Color.WHITE.ordinal()] | pieceMasks[Color.BLACK.ordinal()];
+        long targetMask = BitBoard.setLocationMasks[target];
+        switch (type) {
+            case PAWN:
+                long sources = 0;
+                /* Attacks are symmetric: pawns of the opponent's color attack where ours capture from */
+                if ((pieceMasks[opponentColor.ordinal()] & targetMask) != 0 || target == enPassantIndex) {
+                    sources |= BitBoard.pawnAttackMasks[opponentColor.ordinal() * 64 + target];
+                }
+                if ((allMask & targetMask) == 0) {
+                    var step = color == Color.WHITE ? -8 : 8;
+                    var single = target + step;
+                    if (single >= 0 && single < 64) {
+                        sources |= BitBoard.setLocationMasks[single];
+                        /* Marching two squares from the starting rank */
+                        var marchRank = color == Color.WHITE ? 3 : 4;
+                        if (getRank(target) == marchRank && board[single] == null) {
+                            sources |= BitBoard.setLocationMasks[single + step];
+                        }
+                    }
+                }
+                return sources;
+            case KNIGHT:
+                return BitBoard.knightAttackMasks[target];
+            case BISHOP:
+                return BitBoard.getBishopAttacks(target, allMask);
+            case ROOK:
+                return BitBoard.getRookAttacks(target, allMask);
+            case QUEEN:
+                return BitBoard.getQueenAttacks(target, allMask);
+            default:
+                return ~0L;
+        }
+    }
+
+    /*
+     * Whether the current player moving the piece on start to end, which it can
+     * reach, leaves their king safe. Uses the checks and pins like generateMoves,
+     * leaving kings, en passant and positions without one king to moveWithCoords.
+     */
+    private boolean isLegalMove(int start, int end) {
+        var piece = board[start];
+        long kings = getPieceMask(currentPlayer.color, PieceType.KING);
+        if (Long.bitCount(kings) != 1 || piece.type == PieceType.KING
+                || (piece.type == PieceType.PAWN && end == enPassantIndex)) {
+            return moveWithCoords(currentPlayer, getRank(start), getFile(start), getRank(end), getFile(end),
+                    PieceType.QUEEN, false, true);
+        }
+
+        int kingIndex = Long.numberOfTrailingZeros(kings);
+        long startMask = BitBoard.setLocationMasks[start];
+        long endMask = BitBoard.setLocationMasks[end];
 
+        /* When in check the move must take the checking piece or block it */
+        if (checkers != 0) {
+            if (Long.bitCount(checkers) > 1) {
+                return false;
+            }
+            long evasionMask = checkers | BitBoard.overMasks[Long.numberOfTrailingZeros(checkers) * 64 + kingIndex];
+            if ((evasionMask & endMask) == 0) {
+                return false;
+            }
+        }
+
+        /* Pinned pieces can only move along the line to their king */
+        if ((pinned & startMask) != 0) {
+            return (BitBoard.overMasks[kingIndex * 64 + end] & startMask) != 0
+                    || (BitBoard.overMasks[kingIndex * 64 + start] & endMask) != 0;
+        }
         return true;
     }
 
@@ -0,0 +1,27 @@
+package org.ccrew.cchess.lib;
+
+/*
+ * What ChessState.makeMove changed, so ChessState.unmakeMove can take the move
+ * back without keeping a copy of the whole state
+ */
+public class ChessUndo {
+
+    int start;
+    int end;
+    ChessPiece piece;
+    ChessPiece victim;
+    int victimIndex;
+    int rookStart;
+    int rookEnd;
+
+    /* Castling rights, one bit for each side of each color */
+    int castling;
+    int enPassantIndex;
+    int halfmoveClock;
+    long key;
+    CheckState checkState;
+    long checkers;
+    long pinned;
+    ChessMove lastMove;
+
+}
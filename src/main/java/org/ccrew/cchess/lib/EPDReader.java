@@ -0,0 +1,121 @@
+package org.ccrew.cchess.lib;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Reads EPD files, one record per line. Blank lines and lines starting with #
+ * are skipped. The position is only split from the operations here, it is
+ * checked when a record is set up. Move counters after the four FEN fields are
+ * accepted as well, as many perft suites have them.
+ */
+public final class EPDReader {
+
+    private EPDReader() {
+    }
+
+    public static List<EPDRecord> read(Path path) throws IOException {
+        try (var reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            return read(reader);
+        }
+    }
+
+    /* Throws IllegalArgumentException at the first line that isn't a record */
+    public static List<EPDRecord> read(Reader reader) throws IOException {
+        var lines = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+        var records = new ArrayList<EPDRecord>();
+        var number = 0;
+        String line;
+        while ((line = lines.readLine()) != null) {
+            number++;
+            var start = skipSpaces(line, 0);
+            if (start == line.length() || line.charAt(start) == '#') {
+                continue;
+            }
+            records.add(parse(line, number));
+        }
+        return records;
+    }
+
+    public static EPDRecord parse(String line, int number) {
+        var record = new EPDRecord();
+        record.line = number;
+
+        /* Four FEN fields, and the move counters if they follow */
+        var start = skipSpaces(line, 0);
+        var i = start;
+        for (var field = 0; field < 4; field++) {
+            var fieldEnd = skipToken(line, i);
+            if (fieldEnd == i) {
+                throw invalidRecord(line, number);
+            }
+            i = skipSpaces(line, fieldEnd);
+        }
+        var fenEnd = i;
+        for (var field = 0; field < 2 && i < line.length() && Character.isDigit(line.charAt(i)); field++) {
+            fenEnd = skipToken(line, i);
+            i = skipSpaces(line, fenEnd);
+        }
+        record.fen = line.substring(start, fenEnd).strip();
+
+        while (i < line.length()) {
+            /* Perft suites start their operations with a semicolon too */
+            if (line.charAt(i) == ';') {
+                i = skipSpaces(line, i + 1);
+                continue;
+            }
+            var opcodeEnd = skipToken(line, i);
+            if (opcodeEnd == i || !Character.isLetter(line.charAt(i))) {
+                throw invalidRecord(line, number);
+            }
+            var opcode = line.substring(i, opcodeEnd);
+            var operands = new ArrayList<String>(1);
+            i = skipSpaces(line, opcodeEnd);
+            /* A missing semicolon is tolerated at the end of the line */
+            while (i < line.length() && line.charAt(i) != ';') {
+                if (line.charAt(i) == '"') {
+                    var quoteEnd = line.indexOf('"', i + 1);
+                    if (quoteEnd < 0) {
+                        throw invalidRecord(line, number);
+                    }
+                    operands.add(line.substring(i + 1, quoteEnd));
+                    i = quoteEnd + 1;
+                } else {
+                    var operandEnd = skipToken(line, i);
+                    operands.add(line.substring(i, operandEnd));
+                    i = operandEnd;
+                }
+                i = skipSpaces(line, i);
+            }
+            record.operations.put(opcode, operands);
+            i = skipSpaces(line, i + 1);
+        }
+        return record;
+    }
+
+    private static IllegalArgumentException invalidRecord(String line, int number) {
+        return new IllegalArgumentException(String.format("Invalid EPD on line %d: %s", number, line));
+    }
+
+    private static int skipSpaces(String line, int i) {
+        while (i < line.length() && (line.charAt(i) == ' ' || line.charAt(i) == '\t')) {
+            i++;
+        }
+        return i;
+    }
+
+    /* End of a field, opcode or unquoted operand */
+    private static int skipToken(String line, int i) {
+        while (i < line.length() && line.charAt(i) != ' ' && line.charAt(i) != '\t' && line.charAt(i) != ';') {
+            i++;
+        }
+        return i;
+    }
+
+}
@@ -0,0 +1,93 @@
+package org.ccrew.cchess.lib;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * One line of an EPD file: a position written as the first fields of a FEN and
+ * operations, each an opcode with its operands, ending in a semicolon.
+ */
+public class EPDRecord {
+
+    /* Line of the record in its file, from 1 */
+    public int line;
+
+    /* Placement, active color, castling and en passant, with the move counters if the line has them */
+    public String fen;
+
+    /* Operands of each opcode in the order they are written, without the quotes of strings */
+    public Map<String, List<String>> operations = new LinkedHashMap<>();
+
+    public List<String> getOperands(String opcode) {
+        return operations.getOrDefault(opcode, List.of());
+    }
+
+    /* First operand of the opcode, null if it is missing */
+    public String getOperand(String opcode) {
+        var operands = operations.get(opcode);
+        return operands == null || operands.isEmpty() ? null : operands.get(0);
+    }
+
+    public String getId() {
+        return getOperand("id");
+    }
+
+    public String getComment() {
+        return getOperand("c0");
+    }
+
+    /* Moves in SAN */
+    public List<String> getBestMoves() {
+        return getOperands("bm");
+    }
+
+    public List<String> getAvoidMoves() {
+        return getOperands("am");
+    }
+
+    /* Perft count at depth from a D1 to D6 style operation, -1 if there is none */
+    public long getPerftCount(int depth) {
+        var count = getOperand("D" + depth);
+        return count == null ? -1 : Long.parseLong(count);
+    }
+
+    /*
+     * Set state to the position, taking the move counters from the hmvc and fmvn
+     * operations when they are given. Throws IllegalArgumentException if the
+     * position is invalid.
+     */
+    public void setUp(ChessState state) {
+        state.setFen(fen);
+        var halfmoves = getOperand("hmvc");
+        if (halfmoves != null) {
+            state.halfmoveClock = Integer.parseInt(halfmoves);
+        }
+        var fullmoves = getOperand("fmvn");
+        if (fullmoves != null) {
+            state.number = (Integer.parseInt(fullmoves) - 1) * 2;
+            if (state.currentPlayer.color == Color.BLACK) {
+                state.number++;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        var builder = new StringBuilder(fen);
+        for (var operation : operations.entrySet()) {
+            builder.append(' ').append(operation.getKey());
+            for (var operand : operation.getValue()) {
+                builder.append(' ');
+                if (operand.isEmpty() || operand.indexOf(' ') >= 0 || operand.indexOf(';') >= 0) {
+                    builder.append('"').append(operand).append('"');
+                } else {
+                    builder.append(operand);
+                }
+            }
+            builder.append(';');
+        }
+        return builder.toString();
+    }
+
+}
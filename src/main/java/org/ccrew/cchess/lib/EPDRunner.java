@@ -0,0 +1,123 @@
+package org.ccrew.cchess.lib;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+
+/*
+ * Evaluates the records of an EPD suite on several threads. Each task has a
+ * ChessState of its own which it sets up for every record in turn, so the
+ * evaluator can make moves on it freely. Records whose position can't be set up,
+ * or whose evaluation throws, are reported as failures without stopping the
+ * rest of the suite.
+ */
+public class EPDRunner {
+
+    /* Records evaluated by one task, few as evaluating one can take long */
+    private static final int BATCH_SIZE = 16;
+
+    public interface Evaluator<T> {
+
+        /* Value of the record, with state set up at its position */
+        T evaluate(EPDRecord record, ChessState state);
+
+    }
+
+    /* A record that couldn't be evaluated */
+    public static class Failure {
+
+        /* Number of the record in the suite, from 0 */
+        public int record;
+        public int line;
+        public String message;
+
+        public Failure(int record, int line, String message) {
+            this.record = record;
+            this.line = line;
+            this.message = message;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Line %d: %s", line, message);
+        }
+
+    }
+
+    public static class Result<T> {
+
+        /* Value of each record in suite order, null for the ones that failed */
+        public List<T> values = new ArrayList<>();
+        public List<Failure> failures = new ArrayList<>();
+
+    }
+
+    private final ExecutorService executor;
+
+    public EPDRunner() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public EPDRunner(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /*
+     * Evaluator comparing the counts of the D1 to D6 operations, up to maxDepth,
+     * with perft counts of the position. Gives null if they match, or else the
+     * first one that doesn't, as "D3 8902 != 8903".
+     */
+    public static Evaluator<String> perft(int maxDepth) {
+        return (record, state) -> {
+            for (var depth = 1; depth <= maxDepth; depth++) {
+                var expected = record.getPerftCount(depth);
+                if (expected >= 0) {
+                    var count = state.perft(depth);
+                    if (count != expected) {
+                        return String.format("D%d %d != %d", depth, expected, count);
+                    }
+                }
+            }
+            return null;
+        };
+    }
+
+    public <T> Result<T> run(Path path, Evaluator<T> evaluator) throws IOException, InterruptedException {
+        return run(EPDReader.read(path), evaluator);
+    }
+
+    public <T> Result<T> run(List<EPDRecord> records, Evaluator<T> evaluator) throws InterruptedException {
+        var batches = Batches.run(executor, records.size(), BATCH_SIZE, (start, end) -> {
+            var batch = new Result<T>();
+            var state = new ChessState(ChessGame.STANDARD_SETUP);
+            for (var i = start; i < end; i++) {
+                var record = records.get(i);
+                try {
+                    record.setUp(state);
+                } catch (IllegalArgumentException e) {
+                    batch.values.add(null);
+                    batch.failures.add(new Failure(i, record.line, e.getMessage()));
+                    continue;
+                }
+                try {
+                    batch.values.add(evaluator.evaluate(record, state));
+                } catch (RuntimeException e) {
+                    batch.values.add(null);
+                    batch.failures.add(new Failure(i, record.line, e.toString()));
+                }
+            }
+            return batch;
+        });
+
+        var result = new Result<T>();
+        for (var batch : batches) {
+            result.values.addAll(batch.values);
+            result.failures.addAll(batch.failures);
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,78 @@
+package org.ccrew.cchess.lib;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/*
+ * Moves of a game read by PGNTokenizer with lazy moves. Holds the range of the
+ * buffer the movetext is in and only tokenizes it, and creates a String per
+ * move, when the list is first used. The annotations of the game are set as
+ * its moveTree at the same time.
+ */
+class LazyMoveList extends AbstractList<String> implements RandomAccess {
+
+    private final PGNGame game;
+    private ByteBuffer buffer;
+    private final int start;
+    private final int end;
+    private final boolean inGame;
+    private List<String> moves;
+
+    LazyMoveList(PGNGame game, ByteBuffer buffer, int start, int end, boolean inGame) {
+        this.game = game;
+        this.buffer = buffer;
+        this.start = start;
+        this.end = end;
+        this.inGame = inGame;
+    }
+
+    /* Tokenize the movetext if it hasn't been, setting the game's moveTree */
+    void decode() {
+        getMoves();
+    }
+
+    private List<String> getMoves() {
+        if (moves == null) {
+            var decoded = new ArrayList<String>();
+            var tree = PGNTokenizer.readMoveText(buffer, start, end, decoded, inGame);
+            if (game.moveTree == null) {
+                game.moveTree = tree;
+            }
+            moves = decoded;
+            /* Let go of the file */
+            buffer = null;
+        }
+        return moves;
+    }
+
+    @Override
+    public String get(int index) {
+        return getMoves().get(index);
+    }
+
+    @Override
+    public int size() {
+        return getMoves().size();
+    }
+
+    @Override
+    public String set(int index, String move) {
+        return getMoves().set(index, move);
+    }
+
+    @Override
+    public void add(int index, String move) {
+        getMoves().add(index, move);
+        modCount++;
+    }
+
+    @Override
+    public String remove(int index) {
+        modCount++;
+        return getMoves().remove(index);
+    }
+
+}
@@ -0,0 +1,67 @@
+package org.ccrew.cchess.lib;
+
+import java.nio.charset.StandardCharsets;
+
+/*
+ * Writing squares and moves into a caller's StringBuilder or byte array from
+ * precomputed tables, for formatting many moves without creating Strings.
+ * Methods writing into a byte array return the offset after what they wrote.
+ */
+public final class Notation {
+
+    private Notation() {
+    }
+
+    /* Names of the squares by index, "a1" to "h8" */
+    private static final String[] squareNames = new String[64];
+    private static final byte[] squareFiles = new byte[64];
+    private static final byte[] squareRanks = new byte[64];
+
+    static {
+        for (var index = 0; index < 64; index++) {
+            squareFiles[index] = (byte) ('a' + ChessState.getFile(index));
+            squareRanks[index] = (byte) ('1' + ChessState.getRank(index));
+            squareNames[index] = new String(new byte[] { squareFiles[index], squareRanks[index] },
+                    StandardCharsets.US_ASCII);
+        }
+    }
+
+    /* Letters of the piece types by ordinal as in SAN, and of promotions as in engine moves */
+    static final char[] pieceSymbols = { ' ', 'R', 'N', 'B', 'Q', 'K' };
+    static final char[] enginePromotionSymbols = { ' ', 'r', 'n', 'b', 'q', ' ' };
+
+    public static String getSquareName(int index) {
+        return squareNames[index];
+    }
+
+    public static StringBuilder appendSquare(StringBuilder builder, int index) {
+        return builder.append((char) squareFiles[index]).append((char) squareRanks[index]);
+    }
+
+    public static int writeSquare(byte[] buffer, int offset, int index) {
+        buffer[offset] = squareFiles[index];
+        buffer[offset + 1] = squareRanks[index];
+        return offset + 2;
+    }
+
+    /* Packed move suitable for a chess engine (CECP/UCI), e.g. e2e4 or e7e8q */
+    public static StringBuilder appendEngine(StringBuilder builder, int move) {
+        appendSquare(builder, PackedMove.getStart(move));
+        appendSquare(builder, PackedMove.getEnd(move));
+        if (PackedMove.isPromotion(move)) {
+            builder.append(enginePromotionSymbols[PackedMove.getPromotionType(move).ordinal()]);
+        }
+        return builder;
+    }
+
+    /* Up to five bytes */
+    public static int writeEngine(byte[] buffer, int offset, int move) {
+        offset = writeSquare(buffer, offset, PackedMove.getStart(move));
+        offset = writeSquare(buffer, offset, PackedMove.getEnd(move));
+        if (PackedMove.isPromotion(move)) {
+            buffer[offset++] = (byte) enginePromotionSymbols[PackedMove.getPromotionType(move).ordinal()];
+        }
+        return offset;
+    }
+
+}
@@ -0,0 +1,120 @@
+package org.ccrew.cchess.lib;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/* Reads games written by PGNBinaryWriter, with the moves in canonical SAN */
+public class PGNBinaryReader implements Closeable {
+
+    private final InputStream input;
+    private final List<String> names = new ArrayList<>();
+    private final List<String> values = new ArrayList<>();
+
+    private final int[] moves = new int[ChessState.MAX_MOVES];
+    private byte[] plies = new byte[256];
+
+    public PGNBinaryReader(InputStream input) throws IOException {
+        this.input = new BufferedInputStream(input);
+        var magic = new byte[PGNBinaryWriter.MAGIC.length];
+        readFully(magic, magic.length);
+        if (!Arrays.equals(magic, PGNBinaryWriter.MAGIC) || readVarInt(this.input) != PGNBinaryWriter.VERSION) {
+            throw new IOException("Not a binary PGN file");
+        }
+    }
+
+    /* The next game, null at the end of the input */
+    public PGNGame read() throws PGNError, IOException {
+        var first = input.read();
+        if (first < 0) {
+            return null;
+        }
+
+        var game = new PGNGame();
+        var tagCount = readVarInt(input, first);
+        game.tags = new HashMap<>(tagCount * 2);
+        for (var i = 0; i < tagCount; i++) {
+            var name = readString(names);
+            game.tags.put(name, readString(values));
+        }
+
+        var plyCount = readVarInt(input);
+        if (plies.length < plyCount) {
+            plies = new byte[Math.max(plyCount, plies.length * 2)];
+        }
+        readFully(plies, plyCount);
+
+        var state = new ChessState(game.getStartingFen());
+        for (var i = 0; i < plyCount; i++) {
+            var n = state.getLegalMoves(moves);
+            var index = plies[i] & 0xff;
+            if (index >= n) {
+                throw new PGNError.LOAD_ERROR(String.format("Failed to load PGN: move %d is invalid.", index));
+            }
+            state.move(moves[index]);
+            game.moves.add(state.lastMove.getSan());
+        }
+        return game;
+    }
+
+    private String readString(List<String> dictionary) throws IOException {
+        var id = readVarInt(input);
+        if (id < dictionary.size()) {
+            return dictionary.get(id);
+        }
+
+        var length = readVarInt(input);
+        var bytes = new byte[length];
+        readFully(bytes, length);
+        var value = new String(bytes, StandardCharsets.UTF_8);
+        if (dictionary.size() < PGNBinaryWriter.MAX_DICTIONARY_SIZE) {
+            dictionary.add(value);
+        }
+        return value;
+    }
+
+    private void readFully(byte[] bytes, int length) throws IOException {
+        var offset = 0;
+        while (offset < length) {
+            var n = input.read(bytes, offset, length - offset);
+            if (n < 0) {
+                throw new EOFException();
+            }
+            offset += n;
+        }
+    }
+
+    private static int readVarInt(InputStream input) throws IOException {
+        var b = input.read();
+        if (b < 0) {
+            throw new EOFException();
+        }
+        return readVarInt(input, b);
+    }
+
+    /* Varint whose first byte has already been read */
+    private static int readVarInt(InputStream input, int b) throws IOException {
+        var value = b & 0x7f;
+        for (var shift = 7; (b & 0x80) != 0 && shift < 32; shift += 7) {
+            b = input.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            value |= (b & 0x7f) << shift;
+        }
+        return value;
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+
+}
@@ -0,0 +1,122 @@
+package org.ccrew.cchess.lib;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+
+/*
+ * Writes games in a compact binary form read back by PGNBinaryReader:
+ *
+ * file: magic, version, then the games one after another
+ * game: tag count, (name, value) per tag, ply count, one byte per ply
+ *
+ * Numbers are unsigned varints. Each ply is the index of the move in the list
+ * getLegalMoves gives for the position before it. Tag names and values are
+ * numbers into dictionaries both sides build in the same order: a number one
+ * past the end is followed by a new string (length and UTF-8 bytes), which is
+ * added while the dictionary has room.
+ *
+ * Only the mainline is stored, so games with variations, comments or NAGs are
+ * rejected rather than written without them.
+ */
+public class PGNBinaryWriter implements Closeable {
+
+    static final byte[] MAGIC = { 'C', 'P', 'G', 'B' };
+    static final int VERSION = 1;
+    static final int MAX_DICTIONARY_SIZE = 1 << 16;
+
+    private final OutputStream output;
+    private final HashMap<String, Integer> names = new HashMap<>();
+    private final HashMap<String, Integer> values = new HashMap<>();
+
+    private final ByteArrayOutputStream plies = new ByteArrayOutputStream();
+    private final int[] moves = new int[ChessState.MAX_MOVES];
+
+    public PGNBinaryWriter(OutputStream output) throws IOException {
+        this.output = new BufferedOutputStream(output);
+        this.output.write(MAGIC);
+        writeVarInt(this.output, VERSION);
+    }
+
+    /*
+     * Throws without writing anything if the game has an invalid move or
+     * annotations, or IllegalStateException if its moves no longer match its tree
+     */
+    public void write(PGNGame game) throws PGNError, IOException {
+        var tree = game.getAnnotations();
+        if (tree != null && tree.hasAnnotations()) {
+            throw new PGNError.LOAD_ERROR("Failed to write PGN: variations, comments and NAGs can't be stored.");
+        }
+
+        plies.reset();
+        var state = new ChessState(game.getStartingFen());
+        for (var move : game.moves) {
+            var n = state.getLegalMoves(moves);
+            if (!state.move(move)) {
+                throw new PGNError.LOAD_ERROR(String.format("Failed to load PGN: move %s is invalid.", move));
+            }
+            plies.write(findMove(state.lastMove, n));
+        }
+
+        writeVarInt(output, game.tags.size());
+        for (var tag : game.tags.entrySet()) {
+            writeString(output, names, tag.getKey());
+            writeString(output, values, tag.getValue());
+        }
+        writeVarInt(output, plies.size());
+        plies.writeTo(output);
+    }
+
+    /* Index of the move just made among the n legal moves */
+    private int findMove(ChessMove move, int n) {
+        var start = ChessState.getIndex(move.r0, move.f0);
+        var end = ChessState.getIndex(move.r1, move.f1);
+        var promotionType = move.promotionPiece == null ? null : move.promotionPiece.type;
+        for (var i = 0; i < n; i++) {
+            if (PackedMove.getStart(moves[i]) == start && PackedMove.getEnd(moves[i]) == end
+                    && PackedMove.getPromotionType(moves[i]) == promotionType) {
+                return i;
+            }
+        }
+        throw new IllegalStateException(String.format("Move %s is not a legal move", move.getLan()));
+    }
+
+    private static void writeString(OutputStream output, HashMap<String, Integer> dictionary, String value)
+            throws IOException {
+        var id = dictionary.get(value);
+        if (id != null) {
+            writeVarInt(output, id);
+            return;
+        }
+
+        writeVarInt(output, dictionary.size());
+        var bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(output, bytes.length);
+        output.write(bytes);
+        if (dictionary.size() < MAX_DICTIONARY_SIZE) {
+            dictionary.put(value, dictionary.size());
+        }
+    }
+
+    static void writeVarInt(OutputStream output, int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            output.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        output.write(value);
+    }
+
+    public void flush() throws IOException {
+        output.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        output.close();
+    }
+
+}
@@ -13,27 +13,27 @@ public class PGNGame {
      * This is the Seven Tag Roster (STR). They have to appear at the top, in this
      * order.
      */
-    private int strIndex(String name) {
-        if (name == "Event") {
+    private static int strIndex(String name) {
+        if (name.equals("Event")) {
             return 0;
-        } else if (name == "Site") {
+        } else if (name.equals("Site")) {
             return 1;
-        } else if (name == "Date") {
+        } else if (name.equals("Date")) {
             return 2;
-        } else if (name == "Round") {
+        } else if (name.equals("Round")) {
             return 3;
-        } else if (name == "White") {
+        } else if (name.equals("White")) {
             return 4;
-        } else if (name == "Black") {
+        } else if (name.equals("Black")) {
             return 5;
-        } else if (name == "Result") {
+        } else if (name.equals("Result")) {
             return 6;
         } else {
             return 7;
         }
     }
 
-    private Comparator<String> compareTag = (String name0, String name1) -> {
+    static final Comparator<String> compareTag = (String name0, String name1) -> {
         int strIndex0 = strIndex(name0);
         int strIndex1 = strIndex(name1);
 
@@ -47,6 +47,11 @@ public class PGNGame {
 
     public HashMap<String, String> tags;
     public List<String> moves = new ArrayList<>();
+    /*
+     * Variations, comments and NAGs, null if the game was read without any. Set
+     * when moves is first used for games read with lazy moves.
+     */
+    public PGNMoveTree moveTree;
 
     public static final String RESULT_IN_PROGRESS = "*";
     public static final String RESULT_DRAW = "1/2-1/2";
@@ -191,6 +196,15 @@ public class PGNGame {
         tags.put("FEN", fen);
     }
 
+    /* Position the moves are played from */
+    public String getStartingFen() {
+        var fen = getFen();
+        if (getSetUp() && fen != null) {
+            return fen;
+        }
+        return ChessGame.STANDARD_SETUP;
+    }
+
     public String getTermination() {
         return tags.get("Termination");
     }
@@ -231,6 +245,45 @@ public class PGNGame {
         tags.put("X-GNOME-BlackLevel", blackLevel);
     }
 
+    /*
+     * Tree of the moves, built from moves if the game has no annotations. Such a
+     * tree isn't kept, set it as moveTree for changes to it to be written.
+     */
+    public PGNMoveTree getMoveTree() {
+        var tree = getAnnotations();
+        return tree != null ? tree : PGNMoveTree.fromMoves(moves);
+    }
+
+    /*
+     * moveTree, once lazily read moves have been decoded along with it, checked
+     * against moves as they are what the game is. Moves added since the tree was
+     * made are added to the end of its mainline. Throws IllegalStateException if
+     * moves were changed or removed instead, as writing either would lose some.
+     */
+    PGNMoveTree getAnnotations() {
+        if (moves instanceof LazyMoveList) {
+            ((LazyMoveList) moves).decode();
+        }
+        var tree = moveTree;
+        if (tree == null) {
+            return null;
+        }
+
+        var node = PGNMoveTree.ROOT;
+        var i = 0;
+        for (var next = tree.getFirstChild(node); next != PGNMoveTree.NONE; next = tree.getFirstChild(next), i++) {
+            if (i == moves.size() || !tree.getMove(next).equals(moves.get(i))) {
+                throw new IllegalStateException(
+                        String.format("Move %d of the game no longer matches its move tree", i + 1));
+            }
+            node = next;
+        }
+        for (; i < moves.size(); i++) {
+            node = tree.addMove(node, moves.get(i));
+        }
+        return tree;
+    }
+
     public PGNGame() {
         tags = new HashMap<String, String>();
         tags.put("Event", "?");
@@ -248,28 +301,9 @@ public class PGNGame {
     }
 
     public void write(File file) throws Exception {
-        var data = new StringBuilder();
-
-        var keys = new ArrayList<>(tags.keySet());
-        keys.sort(compareTag);
-        for (var key : keys) {
-            data.append(String.format("[%s \"%s\"]\n", key, escape(tags.get(key))));
-        }
-        data.append("\n");
-
-        int i = 0;
-        for (String move : moves) {
-            if (i % 2 == 0) {
-                data.append(String.format("%d. ", i / 2 + 1));
-            }
-            data.append(move);
-            data.append(" ");
-            i++;
+        try (var writer = new PGNWriter(Files.newBufferedWriter(file.toPath()))) {
+            writer.write(this);
         }
-        data.append(getResult());
-        data.append("\n");
-
-        Files.writeString(file.toPath(), data.toString());
     }
 
 }
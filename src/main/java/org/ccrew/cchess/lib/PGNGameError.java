@@ -0,0 +1,32 @@
+package org.ccrew.cchess.lib;
+
+/* A problem found in one game when validating a batch of games */
+public class PGNGameError {
+
+    /* Number of the game in the batch, from 0 */
+    public int game;
+    /* Ply the problem is at, from 1, or 0 if it isn't a move */
+    public int ply;
+    /* Move as written in the game, null if it isn't a move */
+    public String move;
+    /* Position before the move, null if it isn't a move */
+    public String fen;
+    public String message;
+
+    public PGNGameError(int game, int ply, String move, String fen, String message) {
+        this.game = game;
+        this.ply = ply;
+        this.move = move;
+        this.fen = fen;
+        this.message = message;
+    }
+
+    @Override
+    public String toString() {
+        if (move == null) {
+            return String.format("Game %d: %s", game, message);
+        }
+        return String.format("Game %d, ply %d: %s %s in %s", game, ply, message, move, fen);
+    }
+
+}
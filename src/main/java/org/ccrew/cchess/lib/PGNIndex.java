@@ -0,0 +1,276 @@
+package org.ccrew.cchess.lib;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/*
+ * Where each game of a PGN file starts and how long it is, along with a few of
+ * its tags, so single games can be found and read without parsing the rest of
+ * the file. The index can be saved next to the PGN file and loaded again.
+ *
+ * Saved as: magic, version, number of distinct tag values, the values, number of
+ * games, then per game its offset, length and the value number of each indexed
+ * tag (-1 if it has none).
+ */
+public class PGNIndex {
+
+    /* Tags kept in the index */
+    public static final String[] TAGS = { "White", "Black", "Date", "Result", "ECO" };
+
+    private static final int MAGIC = 0x43504749;
+    private static final int VERSION = 1;
+
+    private int size = 0;
+    private long[] offsets = new long[1024];
+    private int[] lengths = new int[1024];
+    private int[] tagValues = new int[1024 * TAGS.length];
+    private List<String> values = new ArrayList<>();
+    private HashMap<String, Integer> valueIds = new HashMap<>();
+
+    private PGNIndex() {
+    }
+
+    private static class Entry {
+
+        public long offset;
+        public int length;
+        public String[] tags = new String[TAGS.length];
+
+    }
+
+    public static PGNIndex build(Path path) throws IOException {
+        return build(path, new ParallelPGN());
+    }
+
+    /* Index a PGN file, throwing an IOException at its first syntax error so no game goes missing */
+    public static PGNIndex build(Path path, ParallelPGN reader) throws IOException {
+        var index = new PGNIndex();
+        var errorOffset = reader.readChunks(path, PGNIndex::readEntries, entries -> {
+            for (var entry : entries) {
+                index.add(entry);
+            }
+        }, true);
+        if (errorOffset >= 0) {
+            throw ParallelPGN.syntaxError(path, errorOffset);
+        }
+        return index;
+    }
+
+    /*
+     * Use the index saved at indexPath if it is newer than the PGN file, else build
+     * and save it. Nothing is saved for a file with a syntax error.
+     */
+    public static PGNIndex open(Path path, Path indexPath) throws IOException {
+        if (Files.exists(indexPath)
+                && Files.getLastModifiedTime(indexPath).compareTo(Files.getLastModifiedTime(path)) >= 0) {
+            return load(indexPath);
+        }
+        var index = build(path);
+        index.save(indexPath);
+        return index;
+    }
+
+    /* Game ranges and indexed tags of one piece of the file, without parsing the moves */
+    private static List<Entry> readEntries(PGNTokenizer tokenizer, long base) {
+        var entries = new ArrayList<Entry>();
+        Entry entry = null;
+        tokenizer.setPrintErrors(false);
+        while (true) {
+            var token = tokenizer.next();
+            if (token == PGNTokenizer.ERROR) {
+                break;
+            }
+            if (token == PGNTokenizer.END) {
+                if (entry != null) {
+                    entry.length = (int) (base + tokenizer.getOffset() - entry.offset);
+                    entries.add(entry);
+                }
+                break;
+            }
+
+            if (entry == null) {
+                entry = new Entry();
+                entry.offset = base + tokenizer.getGameStart();
+            }
+            if (token == PGNTokenizer.TAG) {
+                for (var i = 0; i < TAGS.length; i++) {
+                    if (tokenizer.matches(TAGS[i])) {
+                        entry.tags[i] = tokenizer.getTagValue();
+                    }
+                }
+            } else if (token == PGNTokenizer.RESULT) {
+                entry.length = (int) (base + tokenizer.getOffset() - entry.offset);
+                entries.add(entry);
+                entry = null;
+            }
+        }
+        return entries;
+    }
+
+    private void add(Entry entry) {
+        if (size == offsets.length) {
+            offsets = Arrays.copyOf(offsets, size * 2);
+            lengths = Arrays.copyOf(lengths, size * 2);
+            tagValues = Arrays.copyOf(tagValues, size * 2 * TAGS.length);
+        }
+        offsets[size] = entry.offset;
+        lengths[size] = entry.length;
+        for (var i = 0; i < TAGS.length; i++) {
+            tagValues[size * TAGS.length + i] = getValueId(entry.tags[i]);
+        }
+        size++;
+    }
+
+    private int getValueId(String value) {
+        if (value == null) {
+            return -1;
+        }
+        var id = valueIds.get(value);
+        if (id == null) {
+            id = values.size();
+            values.add(value);
+            valueIds.put(value, id);
+        }
+        return id;
+    }
+
+    public static PGNIndex load(Path indexPath) throws IOException {
+        try (var input = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexPath)))) {
+            if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+                throw new IOException(String.format("%s is not a PGN index", indexPath));
+            }
+
+            var index = new PGNIndex();
+            var valueCount = input.readInt();
+            for (var i = 0; i < valueCount; i++) {
+                index.getValueId(input.readUTF());
+            }
+
+            index.size = input.readInt();
+            index.offsets = new long[Math.max(index.size, 1)];
+            index.lengths = new int[Math.max(index.size, 1)];
+            index.tagValues = new int[Math.max(index.size, 1) * TAGS.length];
+            for (var i = 0; i < index.size; i++) {
+                index.offsets[i] = input.readLong();
+                index.lengths[i] = input.readInt();
+                for (var j = 0; j < TAGS.length; j++) {
+                    index.tagValues[i * TAGS.length + j] = input.readInt();
+                }
+            }
+            return index;
+        }
+    }
+
+    /* Written to a temporary file first, so a save cut short never leaves a partial index at indexPath */
+    public void save(Path indexPath) throws IOException {
+        var directory = indexPath.toAbsolutePath().getParent();
+        var temporary = Files.createTempFile(directory, indexPath.getFileName().toString(), ".tmp");
+        try {
+            write(temporary);
+            try {
+                Files.move(temporary, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporary, indexPath, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    private void write(Path indexPath) throws IOException {
+        try (var output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(indexPath)))) {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeInt(values.size());
+            for (var value : values) {
+                output.writeUTF(value);
+            }
+            output.writeInt(size);
+            for (var i = 0; i < size; i++) {
+                output.writeLong(offsets[i]);
+                output.writeInt(lengths[i]);
+                for (var j = 0; j < TAGS.length; j++) {
+                    output.writeInt(tagValues[i * TAGS.length + j]);
+                }
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getOffset(int game) {
+        return offsets[game];
+    }
+
+    public int getLength(int game) {
+        return lengths[game];
+    }
+
+    /* Value of one of the indexed tags, null if the game doesn't have it */
+    public String getTag(int game, String name) {
+        var id = tagValues[game * TAGS.length + getTagIndex(name)];
+        return id < 0 ? null : values.get(id);
+    }
+
+    /* Numbers of the games with the given value for one of the indexed tags */
+    public int[] find(String name, String value) {
+        var tag = getTagIndex(name);
+        var id = valueIds.get(value);
+        if (id == null) {
+            return new int[0];
+        }
+        var games = new int[size];
+        var count = 0;
+        for (var i = 0; i < size; i++) {
+            if (tagValues[i * TAGS.length + tag] == id) {
+                games[count++] = i;
+            }
+        }
+        return Arrays.copyOf(games, count);
+    }
+
+    private static int getTagIndex(String name) {
+        for (var i = 0; i < TAGS.length; i++) {
+            if (TAGS[i].equals(name)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException(String.format("Tag %s is not indexed", name));
+    }
+
+    public PGNGame readGame(Path path, int game) throws IOException {
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return readGame(channel, game);
+        }
+    }
+
+    /* Read and parse only the given game */
+    public PGNGame readGame(FileChannel channel, int game) throws IOException {
+        var buffer = ByteBuffer.allocate(lengths[game]);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offsets[game] + buffer.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+        buffer.flip();
+        return new PGNTokenizer(buffer).readGame();
+    }
+
+}
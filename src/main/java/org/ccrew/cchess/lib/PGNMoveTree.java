@@ -0,0 +1,267 @@
+package org.ccrew.cchess.lib;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * Moves of a game with their variations, comments and NAGs. Nodes are numbers
+ * into parallel arrays rather than objects: node 0 is the starting position and
+ * every other node is a move. The first child of a node is the main
+ * continuation and its siblings are the variations replacing it.
+ */
+public class PGNMoveTree {
+
+    public static final int ROOT = 0;
+    public static final int NONE = -1;
+
+    /* NAGs of a node packed a byte each, up to four */
+    private static final int MAX_NAGS = 4;
+
+    private int size = 1;
+    private int[] parents = new int[16];
+    private int[] firstChildren = new int[16];
+    private int[] lastChildren = new int[16];
+    private int[] nextSiblings = new int[16];
+    private int[] nags = new int[16];
+    private String[] moves = new String[16];
+    /* Comment after the move, or before the first move for the root */
+    private String[] comments = new String[16];
+    /* Comment before the first move of a variation */
+    private String[] startingComments;
+
+    /* Where the parser is adding moves */
+    private int cursor = ROOT;
+    private int[] variationStack = new int[8];
+    private int variationLevel = 0;
+    private boolean variationStart = false;
+    private String pendingComment;
+
+    public PGNMoveTree() {
+        parents[ROOT] = NONE;
+        firstChildren[ROOT] = NONE;
+        lastChildren[ROOT] = NONE;
+        nextSiblings[ROOT] = NONE;
+    }
+
+    /* Tree with just the given mainline */
+    public static PGNMoveTree fromMoves(List<String> moves) {
+        var tree = new PGNMoveTree();
+        for (var move : moves) {
+            tree.appendMove(move);
+        }
+        return tree;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getParent(int node) {
+        return parents[node];
+    }
+
+    public int getFirstChild(int node) {
+        return firstChildren[node];
+    }
+
+    public int getNextSibling(int node) {
+        return nextSiblings[node];
+    }
+
+    public String getMove(int node) {
+        return moves[node];
+    }
+
+    public String getComment(int node) {
+        return comments[node];
+    }
+
+    public void setComment(int node, String comment) {
+        comments[node] = comment;
+    }
+
+    public String getStartingComment(int node) {
+        return startingComments == null ? null : startingComments[node];
+    }
+
+    public void setStartingComment(int node, String comment) {
+        if (startingComments == null) {
+            startingComments = new String[moves.length];
+        }
+        startingComments[node] = comment;
+    }
+
+    public int[] getNags(int node) {
+        var count = 0;
+        while (count < MAX_NAGS && (nags[node] >>> (count * 8) & 0xff) != 0) {
+            count++;
+        }
+        var result = new int[count];
+        for (var i = 0; i < count; i++) {
+            result[i] = nags[node] >>> (i * 8) & 0xff;
+        }
+        return result;
+    }
+
+    /* Further NAGs past four, and $0, are dropped */
+    public void addNag(int node, int nag) {
+        if (nag <= 0 || nag > 255) {
+            return;
+        }
+        for (var i = 0; i < MAX_NAGS; i++) {
+            if ((nags[node] >>> (i * 8) & 0xff) == 0) {
+                nags[node] |= nag << (i * 8);
+                return;
+            }
+        }
+    }
+
+    /* Clock time in milliseconds from a [%clk h:mm:ss] command in the comment, -1 if there is none */
+    public long getClock(int node) {
+        var comment = comments[node];
+        if (comment == null) {
+            return -1;
+        }
+        var start = comment.indexOf("[%clk");
+        if (start < 0) {
+            return -1;
+        }
+
+        long time = 0;
+        long field = 0;
+        long fraction = 0;
+        long scale = 0;
+        for (var i = start + "[%clk".length(); i < comment.length(); i++) {
+            var c = comment.charAt(i);
+            if (c >= '0' && c <= '9') {
+                if (scale > 0) {
+                    if (scale < 1000) {
+                        fraction = fraction * 10 + c - '0';
+                        scale *= 10;
+                    }
+                } else {
+                    field = field * 10 + c - '0';
+                }
+            } else if (c == ':') {
+                time = (time + field) * 60;
+                field = 0;
+            } else if (c == '.') {
+                scale = 1;
+            } else if (c == ']') {
+                break;
+            } else if (c != ' ') {
+                return -1;
+            }
+        }
+        time = (time + field) * 1000;
+        if (scale > 0) {
+            time += fraction * 1000 / scale;
+        }
+        return time;
+    }
+
+    /* Add a move after parent, as a variation if it already has a continuation */
+    public int addMove(int parent, String move) {
+        if (size == moves.length) {
+            var length = size * 2;
+            parents = Arrays.copyOf(parents, length);
+            firstChildren = Arrays.copyOf(firstChildren, length);
+            lastChildren = Arrays.copyOf(lastChildren, length);
+            nextSiblings = Arrays.copyOf(nextSiblings, length);
+            nags = Arrays.copyOf(nags, length);
+            moves = Arrays.copyOf(moves, length);
+            comments = Arrays.copyOf(comments, length);
+            if (startingComments != null) {
+                startingComments = Arrays.copyOf(startingComments, length);
+            }
+        }
+
+        var node = size++;
+        parents[node] = parent;
+        firstChildren[node] = NONE;
+        lastChildren[node] = NONE;
+        nextSiblings[node] = NONE;
+        moves[node] = move;
+        if (firstChildren[parent] == NONE) {
+            firstChildren[parent] = node;
+        } else {
+            nextSiblings[lastChildren[parent]] = node;
+        }
+        lastChildren[parent] = node;
+        return node;
+    }
+
+    /* Whether any node has a variation, comment or NAG, which a plain list of moves would lose */
+    public boolean hasAnnotations() {
+        for (var node = 0; node < size; node++) {
+            if (nextSiblings[node] != NONE || nags[node] != 0 || comments[node] != null
+                    || getStartingComment(node) != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /* Moves from the root following the first child */
+    public List<String> getMainline() {
+        var mainline = new ArrayList<String>();
+        for (var node = firstChildren[ROOT]; node != NONE; node = firstChildren[node]) {
+            mainline.add(moves[node]);
+        }
+        return mainline;
+    }
+
+    /* Number of moves from the root to the node */
+    public int getPly(int node) {
+        var ply = 0;
+        for (; node != ROOT; node = parents[node]) {
+            ply++;
+        }
+        return ply;
+    }
+
+    /* Movetext read in order: each call continues from the previous one */
+
+    void appendMove(String move) {
+        cursor = addMove(cursor, move);
+        if (pendingComment != null) {
+            setStartingComment(cursor, pendingComment);
+            pendingComment = null;
+        }
+        variationStart = false;
+    }
+
+    void appendComment(String comment) {
+        if (variationStart) {
+            pendingComment = pendingComment == null ? comment : pendingComment + " " + comment;
+        } else {
+            comments[cursor] = comments[cursor] == null ? comment : comments[cursor] + " " + comment;
+        }
+    }
+
+    void appendNag(int nag) {
+        addNag(cursor, nag);
+    }
+
+    /* A variation replacing the last move */
+    void startVariation() {
+        if (variationLevel == variationStack.length) {
+            variationStack = Arrays.copyOf(variationStack, variationLevel * 2);
+        }
+        variationStack[variationLevel++] = cursor;
+        if (cursor != ROOT) {
+            cursor = parents[cursor];
+        }
+        variationStart = true;
+    }
+
+    void endVariation() {
+        if (variationLevel > 0) {
+            cursor = variationStack[--variationLevel];
+        }
+        pendingComment = null;
+        variationStart = false;
+    }
+
+}
@@ -0,0 +1,404 @@
+package org.ccrew.cchess.lib;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/*
+ * Reads the games of a PGN file one at a time, so only the game being parsed is
+ * held in memory however large the file is. Games can be taken with the
+ * iterator, forEachRemaining or as a stream. As with PGN, reading stops at the
+ * first syntax error.
+ */
+public class PGNReader implements Iterator<PGNGame>, Closeable {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    /* Most of a line shown before a syntax error */
+    private static final int MAX_LINE_TEXT = 200;
+
+    private final Reader reader;
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private int bufferLength = 0;
+    private int bufferOffset = 0;
+    private boolean endOfFile = false;
+    private boolean lastWhitespace = true;
+
+    private State state = State.TAGS;
+    private State homeState = State.TAGS;
+    private PGNGame game = new PGNGame();
+    /* Whether the game has had any tags or moves, as a new game has default tags */
+    private boolean inGame = false;
+    private boolean inEscape = false;
+    private StringBuilder token = new StringBuilder();
+    private String tagName = "";
+    private StringBuilder tagValue = new StringBuilder();
+    /* Tag names and values shared between games */
+    private final TagPool pool = new TagPool();
+    /*
+     * Start of the current line in the buffer, and how much of it was in earlier
+     * buffers with the end of that part, up to MAX_LINE_TEXT characters, for
+     * showing where an error is
+     */
+    private int lineStart = 0;
+    private int lineColumn = 0;
+    private StringBuilder lineText = new StringBuilder();
+    private int line = 1;
+    private int ravLevel = 0;
+    /* Only made once the game has a comment, NAG or variation */
+    private PGNMoveTree tree;
+    private StringBuilder comment = new StringBuilder();
+    private int nag;
+    private boolean failed = false;
+    private boolean completed = false;
+
+    private PGNGame nextGame;
+
+    public PGNReader(Reader reader) {
+        this.reader = reader;
+    }
+
+    public PGNReader(InputStream stream) {
+        this(new InputStreamReader(stream, StandardCharsets.UTF_8));
+    }
+
+    public PGNReader(Path path) throws IOException {
+        this(Files.newBufferedReader(path, StandardCharsets.UTF_8));
+    }
+
+    /* Whether reading stopped because of a syntax error */
+    public boolean hasFailed() {
+        return failed;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (nextGame == null) {
+            try {
+                nextGame = readGame();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return nextGame != null;
+    }
+
+    @Override
+    public PGNGame next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        var game = nextGame;
+        nextGame = null;
+        return game;
+    }
+
+    /* Remaining games as a stream, closing the stream closes the reader */
+    public Stream<PGNGame> stream() {
+        var spliterator = Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL);
+        return StreamSupport.stream(spliterator, false).onClose(() -> {
+            try {
+                close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    private PGNGame readGame() throws IOException {
+        while (!failed) {
+            if (bufferOffset == bufferLength) {
+                if (endOfFile) {
+                    return null;
+                }
+                lineColumn += bufferLength - lineStart;
+                lineText.append(buffer, lineStart, bufferLength - lineStart);
+                if (lineText.length() > MAX_LINE_TEXT) {
+                    lineText.delete(0, lineText.length() - MAX_LINE_TEXT);
+                }
+                lineStart = 0;
+                bufferLength = reader.read(buffer);
+                bufferOffset = 0;
+                if (bufferLength < 0) {
+                    bufferLength = 0;
+                    endOfFile = true;
+                    /* Flush a symbol at the end of the file */
+                    if (!lastWhitespace) {
+                        parse(' ');
+                    }
+                    if (completed || (!failed && inGame)) {
+                        return takeGame();
+                    }
+                    return null;
+                }
+            }
+
+            var c = buffer[bufferOffset++];
+            lastWhitespace = Character.isWhitespace(c);
+            if (c == '\n' || c == '\r') {
+                if (c == '\n') {
+                    line++;
+                }
+                lineStart = bufferOffset;
+                lineColumn = 0;
+                lineText.setLength(0);
+            }
+
+            parse(c);
+            if (completed) {
+                return takeGame();
+            }
+        }
+        return null;
+    }
+
+    private PGNGame takeGame() {
+        var completed = game;
+        completed.moveTree = tree;
+        tree = null;
+        game = new PGNGame();
+        inGame = false;
+        this.completed = false;
+        return completed;
+    }
+
+    /* Feed one character to the parser, which sets completed at the end of a game */
+    private void parse(char c) {
+        while (true) {
+            switch (state) {
+                case TAGS:
+                    homeState = State.TAGS;
+                    if (c == ';') {
+                        comment.setLength(0);
+                        state = State.LINE_COMMENT;
+                    } else if (c == '{') {
+                        comment.setLength(0);
+                        state = State.BRACE_COMMENT;
+                    } else if (c == '[') {
+                        state = State.TAG_START;
+                    } else if (!Character.isWhitespace(c)) {
+                        state = State.MOVE_TEXT;
+                        continue;
+                    }
+                    return;
+
+                case MOVE_TEXT:
+                    homeState = State.TAGS;
+                    if (c == ';') {
+                        comment.setLength(0);
+                        state = State.LINE_COMMENT;
+                    } else if (c == '{') {
+                        comment.setLength(0);
+                        state = State.BRACE_COMMENT;
+                    } else if (c == '*') {
+                        if (ravLevel == 0) {
+                            game.setResult(PGNGame.RESULT_IN_PROGRESS);
+                            completed = true;
+                            state = State.TAGS;
+                        }
+                    } else if (c == '.') {
+                        state = State.PERIOD;
+                    } else if (Character.isLetterOrDigit(c)) {
+                        token.setLength(0);
+                        token.append(c);
+                        state = State.SYMBOL;
+                    } else if (c == '$') {
+                        nag = 0;
+                        state = State.NAG;
+                    } else if (c == '(') {
+                        ravLevel++;
+                        getTree().startVariation();
+                    } else if (c == ')') {
+                        if (ravLevel == 0) {
+                            error();
+                        } else {
+                            ravLevel--;
+                            getTree().endVariation();
+                        }
+                    } else if (!Character.isWhitespace(c)) {
+                        error();
+                    }
+                    return;
+
+                case LINE_COMMENT:
+                    if (c == '\n') {
+                        addComment();
+                        state = homeState;
+                    } else if (c != '\r') {
+                        comment.append(c);
+                    }
+                    return;
+
+                case BRACE_COMMENT:
+                    if (c == '}') {
+                        addComment();
+                        state = homeState;
+                    } else {
+                        comment.append(c);
+                    }
+                    return;
+
+                case TAG_START:
+                    if (Character.isLetterOrDigit(c)) {
+                        token.setLength(0);
+                        token.append(c);
+                        state = State.TAG_NAME;
+                    } else if (!Character.isWhitespace(c)) {
+                        error();
+                    }
+                    return;
+
+                case TAG_NAME:
+                    if (Character.isWhitespace(c)) {
+                        tagName = pool.getName(token);
+                        state = State.PRE_TAG_VALUE;
+                    } else if (Character.isLetterOrDigit(c) || c == '_' || c == '+' || c == '#' || c == '=' || c == ':'
+                            || c == '-') {
+                        token.append(c);
+                    } else {
+                        error();
+                    }
+                    return;
+
+                case PRE_TAG_VALUE:
+                    if (c == '"') {
+                        state = State.TAG_VALUE;
+                        tagValue.setLength(0);
+                        inEscape = false;
+                    } else if (!Character.isWhitespace(c)) {
+                        error();
+                    }
+                    return;
+
+                case TAG_VALUE:
+                    if (c == '\\' && !inEscape) {
+                        inEscape = true;
+                    } else if (c == '"' && !inEscape) {
+                        state = State.POST_TAG_VALUE;
+                    } else if (Character.isDefined(c)) {
+                        tagValue.append(c);
+                        inEscape = false;
+                    } else {
+                        error();
+                    }
+                    return;
+
+                case POST_TAG_VALUE:
+                    if (c == ']') {
+                        PGN.insertTag(game, tagName, pool.getValue(tagValue));
+                        inGame = true;
+                        state = State.TAGS;
+                    } else if (!Character.isWhitespace(c)) {
+                        error();
+                    }
+                    return;
+
+                case SYMBOL:
+                    /* NOTE: '/' not in spec but required for 1/2-1/2 symbol */
+                    if (Character.isLetterOrDigit(c) || c == '_' || c == '+' || c == '#' || c == '=' || c == ':'
+                            || c == '-' || c == '/') {
+                        token.append(c);
+                        return;
+                    }
+
+                    boolean isNumber = true;
+                    for (int i = 0; i < token.length(); i++) {
+                        if (!Character.isDigit(token.charAt(i))) {
+                            isNumber = false;
+                        }
+                    }
+
+                    state = State.MOVE_TEXT;
+
+                    if (isNumber) {
+                        continue;
+                    }
+
+                    String symbol = token.toString();
+
+                    /* Game termination markers */
+                    if (symbol.equals(PGNGame.RESULT_DRAW) || symbol.equals(PGNGame.RESULT_WHITE)
+                            || symbol.equals(PGNGame.RESULT_BLACK)) {
+                        if (ravLevel == 0) {
+                            game.setResult(symbol);
+                            completed = true;
+                            state = State.TAGS;
+                        }
+                    } else if (ravLevel == 0) {
+                        game.moves.add(symbol);
+                        if (tree != null) {
+                            tree.appendMove(symbol);
+                        }
+                        inGame = true;
+                    } else {
+                        tree.appendMove(symbol);
+                    }
+                    continue;
+
+                case PERIOD:
+                    state = State.MOVE_TEXT;
+                    continue;
+
+                case NAG:
+                    if (Character.isDigit(c)) {
+                        nag = Math.min(nag * 10 + Character.digit(c, 10), 256);
+                        return;
+                    }
+                    getTree().appendNag(nag);
+                    state = State.MOVE_TEXT;
+                    continue;
+
+                default:
+                    return;
+            }
+        }
+    }
+
+    private PGNMoveTree getTree() {
+        if (tree == null) {
+            tree = PGNMoveTree.fromMoves(game.moves);
+        }
+        return tree;
+    }
+
+    /* Comments are kept once the game has started */
+    private void addComment() {
+        if (inGame) {
+            getTree().appendComment(comment.toString().strip());
+        }
+    }
+
+    private void error() {
+        lineText.append(buffer, lineStart, bufferOffset - lineStart);
+        if (lineText.length() > MAX_LINE_TEXT) {
+            lineText.delete(0, lineText.length() - MAX_LINE_TEXT);
+        }
+        var charOffset = lineColumn + bufferOffset - lineStart - 1;
+        System.err.printf("%d.%d: error: Unexpected character\n", line, charOffset + 1);
+        System.err.printf("%s\n", lineText);
+        for (int i = 0; i < lineText.length() - 1; i++) {
+            System.err.printf(" ");
+        }
+        System.err.printf("^\n");
+        state = State.ERROR;
+        failed = true;
+    }
+
+}
@@ -0,0 +1,570 @@
+package org.ccrew.cchess.lib;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/*
+ * Splits PGN held as bytes, usually a file mapped with open, into tags, moves,
+ * results and annotations. It follows the same grammar as PGNReader but works on the bytes
+ * directly: tokens are reported as offsets into the buffer and only turned into
+ * Strings when asked for, so skipping or matching them costs no allocation.
+ * Tag values are decoded as UTF-8, movetext must be ASCII.
+ */
+public class PGNTokenizer {
+
+    /* Token types returned by next */
+    public static final int END = 0;
+    public static final int TAG = 1;
+    public static final int MOVE = 2;
+    public static final int RESULT = 3;
+    public static final int ERROR = 4;
+    public static final int COMMENT = 5;
+    public static final int NAG = 6;
+    public static final int VARIATION_START = 7;
+    public static final int VARIATION_END = 8;
+
+    /* Character classes */
+    private static final byte WHITESPACE = 1;
+    private static final byte SYMBOL_START = 2;
+    private static final byte SYMBOL = 4;
+    private static final byte TAG_NAME = 8;
+    private static final byte DIGIT = 16;
+
+    private static final byte[] classes = new byte[256];
+
+    static {
+        for (var c = 0; c < 128; c++) {
+            if (Character.isWhitespace(c)) {
+                classes[c] |= WHITESPACE;
+            }
+            if (Character.isLetterOrDigit(c)) {
+                classes[c] |= SYMBOL_START | SYMBOL | TAG_NAME;
+            }
+            if (Character.isDigit(c)) {
+                classes[c] |= DIGIT;
+            }
+        }
+        for (var c : "_+#=:-".toCharArray()) {
+            classes[c] |= SYMBOL | TAG_NAME;
+        }
+        /* NOTE: '/' not in spec but required for 1/2-1/2 symbol */
+        classes['/'] |= SYMBOL;
+    }
+
+    private final ByteBuffer buffer;
+    private final int limit;
+    private int offset;
+    private boolean inMoveText = false;
+    private int ravLevel = 0;
+    private boolean failed = false;
+    private boolean gameEnded = true;
+    private int gameStart;
+
+    /* Range of the last move, result, NAG or tag name, and of the last tag value or comment */
+    private int tokenStart;
+    private int tokenEnd;
+    private int valueStart;
+    private int valueEnd;
+    private boolean valueEscaped;
+
+    private boolean printErrors = true;
+    private boolean lazyMoves = false;
+    private int errorOffset;
+
+    private byte[] scratch = new byte[64];
+    /* Made on the first tag, as tokenizers for lazy moves never see one */
+    private TagPool pool;
+
+    /* Tokenize the bytes between the position and the limit of the buffer */
+    public PGNTokenizer(ByteBuffer buffer) {
+        this.buffer = buffer;
+        offset = buffer.position();
+        limit = buffer.limit();
+    }
+
+    /* Map a whole file, which has to be under 2 GiB */
+    public static PGNTokenizer open(Path path) throws IOException {
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return new PGNTokenizer(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    public boolean hasFailed() {
+        return failed;
+    }
+
+    /* Whether syntax errors are printed to stderr, as PGN does */
+    public void setPrintErrors(boolean printErrors) {
+        this.printErrors = printErrors;
+    }
+
+    /*
+     * Whether readGame keeps the movetext of each game as a range of the buffer,
+     * which is only turned into moves when the game's moves are first used. The
+     * buffer has to stay unchanged until then.
+     */
+    public void setLazyMoves(boolean lazyMoves) {
+        this.lazyMoves = lazyMoves;
+    }
+
+    /* Offset of the character the last syntax error was found at */
+    public int getErrorOffset() {
+        return errorOffset;
+    }
+
+    /* Offset in the buffer the next token will be looked for from */
+    public int getOffset() {
+        return offset;
+    }
+
+    /* Offset of the first token of the game being read, or last read by readGame */
+    public int getGameStart() {
+        return gameStart;
+    }
+
+    public int getTokenStart() {
+        return tokenStart;
+    }
+
+    public int getTokenEnd() {
+        return tokenEnd;
+    }
+
+    public int getValueStart() {
+        return valueStart;
+    }
+
+    public int getValueEnd() {
+        return valueEnd;
+    }
+
+    /* Number of variations the last token is nested in */
+    public int getVariationLevel() {
+        return ravLevel;
+    }
+
+    /*
+     * Moves inside variations are returned as MOVE too, with getVariationLevel
+     * above zero. Comments between games are skipped.
+     */
+    public int next() {
+        if (failed) {
+            return ERROR;
+        }
+
+        while (offset < limit) {
+            var c = buffer.get(offset) & 0xff;
+            var type = classes[c];
+
+            if ((type & WHITESPACE) != 0) {
+                offset++;
+            } else if (c == ';' || c == '{') {
+                inMoveText = false;
+                valueStart = offset + 1;
+                valueEnd = findNext(c == ';' ? '\n' : '}');
+                offset = Math.min(valueEnd + 1, limit);
+                if (!gameEnded) {
+                    return COMMENT;
+                }
+            } else if (gameEnded) {
+                /* Anything else starts the next game */
+                gameStart = offset;
+                gameEnded = false;
+            } else if (c == '[' && !inMoveText) {
+                offset++;
+                return nextTag();
+            } else if ((type & SYMBOL_START) != 0) {
+                inMoveText = true;
+                tokenStart = offset;
+                var numeric = true;
+                while (offset < limit && (classes[buffer.get(offset) & 0xff] & SYMBOL) != 0) {
+                    numeric &= (classes[buffer.get(offset) & 0xff] & DIGIT) != 0;
+                    offset++;
+                }
+                tokenEnd = offset;
+
+                if (numeric) {
+                    continue;
+                }
+                /* Game termination markers */
+                if (matches(PGNGame.RESULT_WHITE) || matches(PGNGame.RESULT_BLACK) || matches(PGNGame.RESULT_DRAW)) {
+                    if (ravLevel > 0) {
+                        continue;
+                    }
+                    inMoveText = false;
+                    gameEnded = true;
+                    return RESULT;
+                }
+                return MOVE;
+            } else {
+                inMoveText = true;
+                if (c == '*') {
+                    tokenStart = offset;
+                    tokenEnd = ++offset;
+                    if (ravLevel == 0) {
+                        inMoveText = false;
+                        gameEnded = true;
+                        return RESULT;
+                    }
+                } else if (c == '.') {
+                    offset++;
+                } else if (c == '$') {
+                    tokenStart = ++offset;
+                    while (offset < limit && (classes[buffer.get(offset) & 0xff] & DIGIT) != 0) {
+                        offset++;
+                    }
+                    tokenEnd = offset;
+                    return NAG;
+                } else if (c == '(') {
+                    ravLevel++;
+                    offset++;
+                    return VARIATION_START;
+                } else if (c == ')' && ravLevel > 0) {
+                    ravLevel--;
+                    offset++;
+                    return VARIATION_END;
+                } else {
+                    return error(offset);
+                }
+            }
+        }
+
+        return END;
+    }
+
+    /* Tag after the opening bracket, END if the input runs out first */
+    private int nextTag() {
+        offset = skipWhitespace(offset);
+        if (offset >= limit) {
+            return END;
+        }
+        if ((classes[buffer.get(offset) & 0xff] & SYMBOL_START) == 0) {
+            return error(offset);
+        }
+
+        tokenStart = offset;
+        while (offset < limit && (classes[buffer.get(offset) & 0xff] & TAG_NAME) != 0) {
+            offset++;
+        }
+        tokenEnd = offset;
+        if (offset >= limit) {
+            return END;
+        }
+        if ((classes[buffer.get(offset) & 0xff] & WHITESPACE) == 0) {
+            return error(offset);
+        }
+
+        offset = skipWhitespace(offset);
+        if (offset >= limit) {
+            return END;
+        }
+        if (buffer.get(offset) != '"') {
+            return error(offset);
+        }
+
+        valueStart = ++offset;
+        valueEscaped = false;
+        var inEscape = false;
+        while (offset < limit) {
+            var c = buffer.get(offset);
+            if (c == '\\' && !inEscape) {
+                inEscape = true;
+                valueEscaped = true;
+            } else if (c == '"' && !inEscape) {
+                break;
+            } else {
+                inEscape = false;
+            }
+            offset++;
+        }
+        valueEnd = offset;
+        if (offset >= limit) {
+            return END;
+        }
+
+        offset = skipWhitespace(offset + 1);
+        if (offset >= limit) {
+            return END;
+        }
+        if (buffer.get(offset) != ']') {
+            return error(offset);
+        }
+        offset++;
+        return TAG;
+    }
+
+    private int skipWhitespace(int index) {
+        while (index < limit && (classes[buffer.get(index) & 0xff] & WHITESPACE) != 0) {
+            index++;
+        }
+        return index;
+    }
+
+    /* Index of the next c, or the limit if there is none */
+    private int findNext(char c) {
+        for (var index = offset + 1; index < limit; index++) {
+            if (buffer.get(index) == c) {
+                return index;
+            }
+        }
+        return limit;
+    }
+
+    private int error(int index) {
+        failed = true;
+        errorOffset = index;
+        if (!printErrors) {
+            return ERROR;
+        }
+
+        var lineStart = buffer.position();
+        var line = 1;
+        for (var i = buffer.position(); i < index; i++) {
+            if (buffer.get(i) == '\n') {
+                line++;
+                lineStart = i + 1;
+            }
+        }
+
+        var charOffset = index - lineStart;
+        System.err.printf("%d.%d: error: Unexpected character\n", line, charOffset + 1);
+        System.err.printf("%s\n", decode(lineStart, index + 1, StandardCharsets.UTF_8));
+        for (int i = 0; i < charOffset; i++) {
+            System.err.printf(" ");
+        }
+        System.err.printf("^\n");
+        return ERROR;
+    }
+
+    /*
+     * Carry on after a syntax error from the next tag that starts a line after a
+     * blank line, dropping the rest of the broken game
+     */
+    public void recover() {
+        if (!failed) {
+            return;
+        }
+
+        var lineBlank = false;
+        var previousBlank = false;
+        var index = errorOffset + 1;
+        for (; index < limit; index++) {
+            var c = buffer.get(index);
+            if (c == '\n') {
+                previousBlank = lineBlank;
+                lineBlank = true;
+            } else if (c == '[' && lineBlank && previousBlank) {
+                break;
+            } else if ((classes[c & 0xff] & WHITESPACE) == 0) {
+                lineBlank = false;
+            }
+        }
+
+        offset = index;
+        inMoveText = false;
+        ravLevel = 0;
+        gameEnded = true;
+        failed = false;
+    }
+
+    /* Whether the last move, result or tag name is the given ASCII text */
+    public boolean matches(String text) {
+        if (tokenEnd - tokenStart != text.length()) {
+            return false;
+        }
+        for (var i = 0; i < text.length(); i++) {
+            if (buffer.get(tokenStart + i) != text.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /* Last move, result or tag name */
+    public String getToken() {
+        return decode(tokenStart, tokenEnd, StandardCharsets.ISO_8859_1);
+    }
+
+    /* Last result as one of the PGNGame constants */
+    public String getResult() {
+        if (matches(PGNGame.RESULT_WHITE)) {
+            return PGNGame.RESULT_WHITE;
+        } else if (matches(PGNGame.RESULT_BLACK)) {
+            return PGNGame.RESULT_BLACK;
+        } else if (matches(PGNGame.RESULT_DRAW)) {
+            return PGNGame.RESULT_DRAW;
+        } else {
+            return PGNGame.RESULT_IN_PROGRESS;
+        }
+    }
+
+    /* Last NAG as a number, capped at 256 */
+    public int getNag() {
+        var nag = 0;
+        for (var i = tokenStart; i < tokenEnd; i++) {
+            nag = Math.min(nag * 10 + buffer.get(i) - '0', 256);
+        }
+        return nag;
+    }
+
+    /* Text of the last comment without its delimiters and surrounding whitespace */
+    public String getComment() {
+        return decode(valueStart, valueEnd, StandardCharsets.UTF_8).strip();
+    }
+
+    /* Tag names and values are shared between the games read by the tokenizer */
+    public String getTagName() {
+        return getPool().getName(buffer, tokenStart, tokenEnd);
+    }
+
+    public String getTagValue() {
+        if (!valueEscaped) {
+            return getPool().getValue(buffer, valueStart, valueEnd);
+        }
+
+        var length = 0;
+        var inEscape = false;
+        ensureScratch(valueEnd - valueStart);
+        for (var i = valueStart; i < valueEnd; i++) {
+            var c = buffer.get(i);
+            if (c == '\\' && !inEscape) {
+                inEscape = true;
+            } else {
+                scratch[length++] = c;
+                inEscape = false;
+            }
+        }
+        return getPool().getValue(ByteBuffer.wrap(scratch), 0, length);
+    }
+
+    private TagPool getPool() {
+        if (pool == null) {
+            pool = new TagPool();
+        }
+        return pool;
+    }
+
+    private String decode(int start, int end, Charset charset) {
+        if (buffer.hasArray()) {
+            return new String(buffer.array(), buffer.arrayOffset() + start, end - start, charset);
+        }
+        ensureScratch(end - start);
+        for (var i = start; i < end; i++) {
+            scratch[i - start] = buffer.get(i);
+        }
+        return new String(scratch, 0, end - start, charset);
+    }
+
+    private void ensureScratch(int length) {
+        if (scratch.length < length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        }
+    }
+
+    /* The next game, null at the end of the input or after a syntax error */
+    public PGNGame readGame() {
+        var game = new PGNGame();
+        /* Whether the game has had any tags or moves, as a new game has default tags */
+        var inGame = false;
+        /* Only made once the game has a comment, NAG or variation, as in PGNReader */
+        PGNMoveTree tree = null;
+        /* Where the tags and, when lazy, the movetext end, and whether the game had started there */
+        var tagsEnd = -1;
+        var moveTextStart = -1;
+        var moveTextInGame = false;
+        while (true) {
+            var token = next();
+            switch (token) {
+                case TAG:
+                    PGN.insertTag(game, getTagName(), getTagValue());
+                    inGame = true;
+                    tagsEnd = offset;
+                    break;
+                case RESULT:
+                    if (moveTextStart >= 0) {
+                        game.moves = new LazyMoveList(game, buffer, moveTextStart, tokenStart, moveTextInGame);
+                    }
+                    game.setResult(getResult());
+                    game.moveTree = tree;
+                    return game;
+                case ERROR:
+                    return null;
+                case END:
+                    if (moveTextStart >= 0) {
+                        game.moves = new LazyMoveList(game, buffer, moveTextStart, offset, moveTextInGame);
+                    }
+                    game.moveTree = tree;
+                    return inGame ? game : null;
+                default:
+                    if (lazyMoves) {
+                        if (moveTextStart < 0) {
+                            moveTextStart = tagsEnd >= 0 ? tagsEnd : gameStart;
+                            moveTextInGame = inGame;
+                        }
+                        inGame |= token == MOVE && ravLevel == 0;
+                    } else {
+                        inGame |= token == MOVE && ravLevel == 0;
+                        tree = readMoveText(token, game.moves, tree, inGame);
+                    }
+                    break;
+            }
+        }
+    }
+
+    /*
+     * Add a movetext token to moves and, once the game has annotations, to tree,
+     * which is returned. Comments are dropped until the game has started.
+     */
+    private PGNMoveTree readMoveText(int token, List<String> moves, PGNMoveTree tree, boolean inGame) {
+        if (tree == null && (token == NAG || token == VARIATION_START || token == VARIATION_END
+                || (token == COMMENT && inGame))) {
+            tree = PGNMoveTree.fromMoves(moves);
+        }
+        switch (token) {
+            case MOVE:
+                var move = getToken();
+                if (ravLevel == 0) {
+                    moves.add(move);
+                }
+                if (tree != null) {
+                    tree.appendMove(move);
+                }
+                break;
+            case COMMENT:
+                if (inGame) {
+                    tree.appendComment(getComment());
+                }
+                break;
+            case NAG:
+                tree.appendNag(getNag());
+                break;
+            case VARIATION_START:
+                tree.startVariation();
+                break;
+            case VARIATION_END:
+                tree.endVariation();
+                break;
+        }
+        return tree;
+    }
+
+    /* Moves of movetext kept by a lazy readGame, returning its tree if it has annotations */
+    static PGNMoveTree readMoveText(ByteBuffer buffer, int start, int end, List<String> moves, boolean inGame) {
+        var tokenizer = new PGNTokenizer(buffer.duplicate().limit(end).position(start));
+        tokenizer.gameEnded = false;
+        PGNMoveTree tree = null;
+        int token;
+        while ((token = tokenizer.next()) != END && token != ERROR) {
+            inGame |= token == MOVE && tokenizer.ravLevel == 0;
+            tree = tokenizer.readMoveText(token, moves, tree, inGame);
+        }
+        return tree;
+    }
+
+}
@@ -0,0 +1,120 @@
+package org.ccrew.cchess.lib;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+
+/*
+ * Checks that games can be replayed, on several threads, and reports every
+ * problem found instead of stopping at the first one. Syntax errors in a file
+ * only lose the game they are in.
+ */
+public class PGNValidator {
+
+    /* Games checked by one task when validating a list */
+    private static final int BATCH_SIZE = 256;
+
+    public static class Result {
+
+        public int games;
+        public List<PGNGameError> errors = new ArrayList<>();
+
+    }
+
+    private final ExecutorService executor;
+    private final ParallelPGN reader;
+
+    public PGNValidator() {
+        this(ForkJoinPool.commonPool(), new ParallelPGN());
+    }
+
+    public PGNValidator(ExecutorService executor, ParallelPGN reader) {
+        this.executor = executor;
+        this.reader = reader;
+    }
+
+    /* The first problem in a game, null if it replays from start to end */
+    public static PGNGameError validate(int index, PGNGame game) {
+        ChessState state;
+        try {
+            state = new ChessState(game.getStartingFen());
+        } catch (RuntimeException e) {
+            return new PGNGameError(index, 0, null, null,
+                    String.format("Invalid FEN %s", game.getStartingFen()));
+        }
+
+        var ply = 1;
+        for (var move : game.moves) {
+            /* Count the move as ChessGame does, so the positions match the ones it shows */
+            state.number++;
+            if (!state.move(move)) {
+                /* A rejected move leaves the board as it was */
+                state.number--;
+                return new PGNGameError(index, ply, move, state.getFen(), "Invalid move");
+            }
+            ply++;
+        }
+        return null;
+    }
+
+    /* Problems in a list of games, in game order */
+    public Result validate(List<PGNGame> games) throws InterruptedException {
+        var batches = Batches.run(executor, games.size(), BATCH_SIZE, (start, end) -> {
+            var errors = new ArrayList<PGNGameError>();
+            for (var i = start; i < end; i++) {
+                var error = validate(i, games.get(i));
+                if (error != null) {
+                    errors.add(error);
+                }
+            }
+            return errors;
+        });
+
+        var result = new Result();
+        result.games = games.size();
+        for (var errors : batches) {
+            result.errors.addAll(errors);
+        }
+        return result;
+    }
+
+    /* Problems in every game of a file, parsing and replaying each piece of it on its own thread */
+    public Result validate(Path path) throws IOException {
+        var result = new Result();
+        reader.readChunks(path, PGNValidator::validateChunk, chunk -> {
+            for (var error : chunk.errors) {
+                error.game += result.games;
+                result.errors.add(error);
+            }
+            result.games += chunk.games;
+        }, true);
+        return result;
+    }
+
+    private static Result validateChunk(PGNTokenizer tokenizer, long base) {
+        var result = new Result();
+        tokenizer.setPrintErrors(false);
+        while (true) {
+            var game = tokenizer.readGame();
+            if (game != null) {
+                var error = validate(result.games, game);
+                if (error != null) {
+                    result.errors.add(error);
+                }
+            } else if (tokenizer.hasFailed()) {
+                var offset = base + tokenizer.getErrorOffset();
+                result.errors.add(new PGNGameError(result.games, 0, null, null,
+                        String.format("Unexpected character at byte %d", offset)));
+                tokenizer.recover();
+            } else {
+                break;
+            }
+            result.games++;
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,212 @@
+package org.ccrew.cchess.lib;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+/*
+ * Appends games in PGN export format: tags in Seven Tag Roster order, a blank
+ * line, the movetext wrapped at 80 columns and a blank line after the result.
+ * Moves and move numbers are written straight to the underlying writer. Games
+ * with a move tree are written with their variations, comments and NAGs.
+ */
+public class PGNWriter implements Closeable, Flushable {
+
+    private static final int LINE_LENGTH = 80;
+
+    private final Writer writer;
+    private final ArrayList<String> names = new ArrayList<>();
+    private final char[] digits = new char[10];
+    private int column;
+    /* No space before the next token, which follows an opening parenthesis */
+    private boolean joinNext;
+
+    public PGNWriter(Writer writer) {
+        this.writer = writer instanceof BufferedWriter ? writer : new BufferedWriter(writer);
+    }
+
+    public PGNWriter(OutputStream output) {
+        this(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+    }
+
+    /* Writes from the current position of the channel */
+    public PGNWriter(FileChannel channel) {
+        this(Channels.newWriter(channel, StandardCharsets.UTF_8.newEncoder(), -1));
+    }
+
+    /* Throws IllegalStateException without writing anything if the moves no longer match the move tree */
+    public void write(PGNGame game) throws IOException {
+        var tree = game.getAnnotations();
+        names.clear();
+        names.addAll(game.tags.keySet());
+        names.sort(PGNGame.compareTag);
+        for (var name : names) {
+            writer.write('[');
+            writer.write(name);
+            writer.write(" \"");
+            writeEscaped(game.tags.get(name));
+            writer.write("\"]\n");
+        }
+        writer.write('\n');
+
+        column = 0;
+        joinNext = false;
+        if (tree != null) {
+            if (tree.getComment(PGNMoveTree.ROOT) != null) {
+                writeComment(tree.getComment(PGNMoveTree.ROOT));
+            }
+            writeLine(tree, tree.getFirstChild(PGNMoveTree.ROOT), 0, false);
+        } else {
+            var i = 0;
+            for (var move : game.moves) {
+                writeMove(move, i, false);
+                i++;
+            }
+        }
+        var result = game.getResult();
+        startToken(result.length());
+        writer.write(result);
+        writer.write("\n\n");
+    }
+
+    /*
+     * Write node and the moves following it, with the variations replacing each
+     * of them except the first, which is a variation itself
+     */
+    private void writeLine(PGNMoveTree tree, int node, int ply, boolean variation) throws IOException {
+        var showNumber = true;
+        for (; node != PGNMoveTree.NONE; node = tree.getFirstChild(node), ply++) {
+            var startingComment = tree.getStartingComment(node);
+            if (startingComment != null) {
+                writeComment(startingComment);
+                showNumber = true;
+            }
+            writeMove(tree.getMove(node), ply, showNumber);
+            showNumber = false;
+
+            for (var nag : tree.getNags(node)) {
+                var length = getDigits(nag);
+                startToken(length + 1);
+                writer.write('$');
+                writer.write(digits, digits.length - length, length);
+                column += length + 1;
+            }
+            if (tree.getComment(node) != null) {
+                writeComment(tree.getComment(node));
+                showNumber = true;
+            }
+
+            if (!variation) {
+                for (var sibling = tree.getNextSibling(node); sibling != PGNMoveTree.NONE; sibling = tree
+                        .getNextSibling(sibling)) {
+                    startToken(1);
+                    writer.write('(');
+                    column++;
+                    joinNext = true;
+                    writeLine(tree, sibling, ply, true);
+                    if (column + 1 > LINE_LENGTH) {
+                        writer.write('\n');
+                        column = 0;
+                    }
+                    writer.write(')');
+                    column++;
+                    showNumber = true;
+                }
+            }
+            variation = false;
+        }
+    }
+
+    /* Move with its number before white moves, and before black ones if showNumber */
+    private void writeMove(String move, int ply, boolean showNumber) throws IOException {
+        if (ply % 2 == 0 || showNumber) {
+            var length = getDigits(ply / 2 + 1);
+            var dots = ply % 2 == 0 ? 1 : 3;
+            /* Keep the number on the same line as its move */
+            startToken(length + dots + 1 + move.length());
+            writer.write(digits, digits.length - length, length);
+            writer.write(ply % 2 == 0 ? ". " : "... ");
+            column += length + dots + 1;
+        } else {
+            startToken(move.length());
+        }
+        writer.write(move);
+        column += move.length();
+    }
+
+    /* Brace comment, wrapped between its words */
+    private void writeComment(String comment) throws IOException {
+        var words = comment.strip().split("\\s+");
+        for (var i = 0; i < words.length; i++) {
+            var word = words[i];
+            var first = i == 0;
+            var last = i == words.length - 1;
+            startToken(word.length() + (first ? 1 : 0) + (last ? 1 : 0));
+            if (first) {
+                writer.write('{');
+            }
+            writer.write(word);
+            if (last) {
+                writer.write('}');
+            }
+            column += word.length() + (first ? 1 : 0) + (last ? 1 : 0);
+        }
+    }
+
+    /* Space or line break before a token of the given length */
+    private void startToken(int length) throws IOException {
+        if (column == 0 || joinNext) {
+            joinNext = false;
+            return;
+        }
+        if (column + 1 + length > LINE_LENGTH) {
+            writer.write('\n');
+            column = 0;
+        } else {
+            writer.write(' ');
+            column++;
+        }
+    }
+
+    /* Write number right aligned into digits, returning how many there are */
+    private int getDigits(int number) {
+        var i = digits.length;
+        do {
+            digits[--i] = (char) ('0' + number % 10);
+            number /= 10;
+        } while (number > 0);
+        return digits.length - i;
+    }
+
+    private void writeEscaped(String value) throws IOException {
+        var start = 0;
+        for (var i = 0; i < value.length(); i++) {
+            var c = value.charAt(i);
+            if (c == '\\' || c == '"') {
+                writer.write(value, start, i - start);
+                writer.write('\\');
+                start = i;
+            }
+        }
+        writer.write(value, start, value.length() - start);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        writer.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+
+}
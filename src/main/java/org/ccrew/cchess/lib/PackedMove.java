@@ -0,0 +1,110 @@
+package org.ccrew.cchess.lib;
+
+public final class PackedMove {
+
+    private PackedMove() {
+    }
+
+    /*
+     * A move packed into an int so it can be stored in primitive arrays:
+     *
+     * bits 0-5: start index, bits 6-11: end index, bits 12-14: promotion type
+     * ordinal (0 when not a promotion, as a pawn can't be promoted to), bits
+     * 15-17: flags
+     *
+     * Moves from getLegalMoves and decodeSan have their flags set. Moves encoded
+     * without them are still understood by ChessState.
+     */
+    private static final int START_SHIFT = 0;
+    private static final int END_SHIFT = 6;
+    private static final int PROMOTION_SHIFT = 12;
+
+    /* Flags */
+    public static final int CAPTURE = 1 << 15;
+    public static final int CASTLING = 1 << 16;
+    /* Set along with CAPTURE */
+    public static final int EN_PASSANT = 1 << 17;
+    private static final int FLAGS_MASK = CAPTURE | CASTLING | EN_PASSANT;
+
+    private static final int INDEX_MASK = 0x3f;
+    private static final int PROMOTION_MASK = 0x7;
+
+    private static final PieceType[] pieceTypes = PieceType.values();
+
+    /* Not a move, as returned when a move can't be decoded */
+    public static final int NONE = -1;
+
+    public static int encode(int start, int end) {
+        return start << START_SHIFT | end << END_SHIFT;
+    }
+
+    public static int encode(int start, int end, PieceType promotionType) {
+        var move = encode(start, end);
+        if (promotionType != null) {
+            move |= promotionType.ordinal() << PROMOTION_SHIFT;
+        }
+        return move;
+    }
+
+    public static int encode(int start, int end, PieceType promotionType, int flags) {
+        return encode(start, end, promotionType) | (flags & FLAGS_MASK);
+    }
+
+    /* Move made by a ChessMove, with its flags */
+    public static int encode(ChessMove move) {
+        var flags = 0;
+        if (move.victim != null) {
+            flags |= CAPTURE;
+        }
+        if (move.enPassant) {
+            flags |= EN_PASSANT;
+        }
+        if (move.castlingRook != null) {
+            flags |= CASTLING;
+        }
+        return encode(ChessState.getIndex(move.r0, move.f0), ChessState.getIndex(move.r1, move.f1),
+                move.promotionPiece != null ? move.promotionPiece.type : null, flags);
+    }
+
+    public static int getStart(int move) {
+        return (move >>> START_SHIFT) & INDEX_MASK;
+    }
+
+    public static int getEnd(int move) {
+        return (move >>> END_SHIFT) & INDEX_MASK;
+    }
+
+    public static int getFlags(int move) {
+        return move & FLAGS_MASK;
+    }
+
+    public static boolean isCapture(int move) {
+        return (move & CAPTURE) != 0;
+    }
+
+    public static boolean isCastling(int move) {
+        return (move & CASTLING) != 0;
+    }
+
+    public static boolean isEnPassant(int move) {
+        return (move & EN_PASSANT) != 0;
+    }
+
+    public static boolean isPromotion(int move) {
+        return ((move >>> PROMOTION_SHIFT) & PROMOTION_MASK) != 0;
+    }
+
+    public static PieceType getPromotionType(int move) {
+        var type = (move >>> PROMOTION_SHIFT) & PROMOTION_MASK;
+        if (type == 0) {
+            return null;
+        }
+        return pieceTypes[type];
+    }
+
+    /* Move suitable for a chess engine (CECP/UCI) */
+    public static String getEngine(int move) {
+        return Notation.appendEngine(new StringBuilder(5), move).toString();
+    }
+
+}
@@ -0,0 +1,255 @@
+package org.ccrew.cchess.lib;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/*
+ * Reads a PGN file on several threads. A quick pass over the bytes finds safe
+ * places to split the file, the start of an [Event tag after a blank line and
+ * outside comments and tag values, and each piece is tokenized on its own. As
+ * with PGN, reading stops at the first syntax error. It isn't printed, as its
+ * line within a piece isn't its line in the file, but its byte offset in the
+ * file is given to the caller.
+ */
+public class ParallelPGN {
+
+    private static final long DEFAULT_CHUNK_SIZE = 8 << 20;
+
+    /* Bytes mapped at a time when looking for split points */
+    private static final int SCAN_WINDOW = 64 << 20;
+
+    private static final String SPLIT_TAG = "[Event";
+
+    /* Turns the tokenizer of the piece of the file starting at base into a result */
+    interface ChunkParser<T> {
+
+        T parse(PGNTokenizer tokenizer, long base);
+
+    }
+
+    private static class Chunk<T> {
+
+        public T result;
+        /* Offset in the file of the syntax error parsing stopped at, -1 if none */
+        public long errorOffset;
+
+    }
+
+    private final ExecutorService executor;
+    private final long chunkSize;
+    private final int maxPending;
+    private boolean lazyMoves = false;
+
+    public ParallelPGN() {
+        this(ForkJoinPool.commonPool(), DEFAULT_CHUNK_SIZE);
+    }
+
+    /* Pieces are at least chunkSize bytes, except the last */
+    public ParallelPGN(ExecutorService executor, long chunkSize) {
+        this.executor = executor;
+        this.chunkSize = Math.max(chunkSize, 1);
+        /* Enough pieces in flight to keep every thread busy without holding the whole file */
+        maxPending = Runtime.getRuntime().availableProcessors() * 2;
+    }
+
+    /*
+     * Whether games are read with only their tags parsed, their moves being
+     * decoded from the mapped file when first used. Quicker when most games are
+     * only looked at for their tags.
+     */
+    public void setLazyMoves(boolean lazyMoves) {
+        this.lazyMoves = lazyMoves;
+    }
+
+    /* All games in file order, throwing an IOException at a syntax error */
+    public List<PGNGame> read(Path path) throws IOException {
+        var games = new ArrayList<PGNGame>();
+        var errorOffset = read(path, games::add, true);
+        if (errorOffset >= 0) {
+            throw syntaxError(path, errorOffset);
+        }
+        return games;
+    }
+
+    static IOException syntaxError(Path path, long offset) {
+        return new IOException(String.format("Unexpected character at byte %d of %s", offset, path));
+    }
+
+    /*
+     * Pass every game to action on the calling thread, in file order if ordered or
+     * else as soon as its piece is parsed. Returns the byte offset in the file of
+     * the syntax error reading stopped at, or -1 if the whole file was read.
+     */
+    public long read(Path path, Consumer<PGNGame> action, boolean ordered) throws IOException {
+        return readChunks(path, (tokenizer, base) -> {
+            var games = new ArrayList<PGNGame>();
+            tokenizer.setLazyMoves(lazyMoves);
+            tokenizer.setPrintErrors(false);
+            PGNGame game;
+            while ((game = tokenizer.readGame()) != null) {
+                games.add(game);
+            }
+            return games;
+        }, games -> games.forEach(action), ordered);
+    }
+
+    /*
+     * Parse every piece of the file with parser and pass the results to action.
+     * Returns the offset in the file of the syntax error a piece stopped at, or -1.
+     */
+    <T> long readChunks(Path path, ChunkParser<T> parser, Consumer<T> action, boolean ordered)
+            throws IOException {
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            var boundaries = findBoundaries(channel);
+            var chunks = boundaries.size() - 1;
+
+            var completion = new ExecutorCompletionService<Chunk<T>>(executor);
+            var pending = new ArrayDeque<Future<Chunk<T>>>();
+            var submitted = 0;
+            try {
+                for (var done = 0; done < chunks; done++) {
+                    while (submitted < chunks && pending.size() < maxPending) {
+                        var start = boundaries.get(submitted);
+                        var end = boundaries.get(submitted + 1);
+                        Callable<Chunk<T>> task = () -> parse(channel, start, end, parser);
+                        /* Only unordered reading takes results from the completion queue */
+                        pending.add(ordered ? executor.submit(task) : completion.submit(task));
+                        submitted++;
+                    }
+
+                    Future<Chunk<T>> future;
+                    if (ordered) {
+                        future = pending.remove();
+                    } else {
+                        future = completion.take();
+                        pending.remove(future);
+                    }
+
+                    var chunk = future.get();
+                    action.accept(chunk.result);
+                    if (chunk.errorOffset >= 0) {
+                        return chunk.errorOffset;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof UncheckedIOException) {
+                    throw ((UncheckedIOException) e.getCause()).getCause();
+                }
+                throw new RuntimeException(e.getCause());
+            } finally {
+                for (var future : pending) {
+                    future.cancel(true);
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static <T> Chunk<T> parse(FileChannel channel, long start, long end, ChunkParser<T> parser) {
+        if (end - start > Integer.MAX_VALUE) {
+            throw new UncheckedIOException(new IOException("No place to split the PGN file within 2 GiB"));
+        }
+
+        PGNTokenizer tokenizer;
+        try {
+            tokenizer = new PGNTokenizer(channel.map(FileChannel.MapMode.READ_ONLY, start, end - start));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        var chunk = new Chunk<T>();
+        chunk.result = parser.parse(tokenizer, start);
+        chunk.errorOffset = tokenizer.hasFailed() ? start + tokenizer.getErrorOffset() : -1;
+        return chunk;
+    }
+
+    /* Offsets of the pieces, from 0 to the size of the file */
+    private List<Long> findBoundaries(FileChannel channel) throws IOException {
+        var size = channel.size();
+        var boundaries = new ArrayList<Long>();
+        boundaries.add(0L);
+
+        var inBrace = false;
+        var inLineComment = false;
+        var inQuote = false;
+        var inEscape = false;
+        var lineBlank = true;
+        var previousBlank = true;
+        var next = chunkSize;
+        for (long base = 0; base < size; base += SCAN_WINDOW) {
+            /* Overlap the windows so the tag can always be matched */
+            var window = channel.map(FileChannel.MapMode.READ_ONLY, base,
+                    Math.min(SCAN_WINDOW + SPLIT_TAG.length(), size - base));
+            var length = (int) Math.min(SCAN_WINDOW, size - base);
+            for (var i = 0; i < length; i++) {
+                var c = window.get(i);
+                if (c == '\n') {
+                    previousBlank = lineBlank;
+                    lineBlank = true;
+                    inLineComment = false;
+                    continue;
+                }
+
+                if (c == '[' && lineBlank && previousBlank && !inBrace && !inLineComment && !inQuote
+                        && base + i >= next && isSplitTag(window, i)) {
+                    boundaries.add(base + i);
+                    next = base + i + chunkSize;
+                }
+                if (c != ' ' && c != '\t' && c != '\r') {
+                    lineBlank = false;
+                }
+
+                if (inBrace) {
+                    inBrace = c != '}';
+                } else if (inLineComment) {
+                    continue;
+                } else if (inQuote) {
+                    if (c == '"' && !inEscape) {
+                        inQuote = false;
+                    }
+                    inEscape = c == '\\' && !inEscape;
+                } else if (c == '{') {
+                    inBrace = true;
+                } else if (c == ';') {
+                    inLineComment = true;
+                } else if (c == '"') {
+                    inQuote = true;
+                    inEscape = false;
+                }
+            }
+        }
+
+        boundaries.add(size);
+        return boundaries;
+    }
+
+    private static boolean isSplitTag(MappedByteBuffer window, int index) {
+        if (window.limit() - index < SPLIT_TAG.length()) {
+            return false;
+        }
+        for (var i = 0; i < SPLIT_TAG.length(); i++) {
+            if (window.get(index + i) != SPLIT_TAG.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,152 @@
+package org.ccrew.cchess.lib;
+
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+public class ParallelPerft {
+
+    /*
+     * Perft counts keyed by position and depth, shared by all tasks. Each slot is
+     * guarded by one of a fixed set of locks so tasks rarely wait on each other.
+     */
+    private static class Table {
+
+        private static final int STRIPES = 64;
+
+        private final long[] keys;
+        private final int[] depths;
+        private final long[] counts;
+        private final Object[] locks = new Object[STRIPES];
+
+        public Table(int size) {
+            /* Round up to a power of two so the key can be masked */
+            size = Integer.highestOneBit(Math.max(size, STRIPES) - 1) << 1;
+            keys = new long[size];
+            depths = new int[size];
+            counts = new long[size];
+            for (int i = 0; i < STRIPES; i++) {
+                locks[i] = new Object();
+            }
+        }
+
+        public long get(long key, int depth) {
+            int index = (int) key & (keys.length - 1);
+            synchronized (locks[index & (STRIPES - 1)]) {
+                if (keys[index] == key && depths[index] == depth) {
+                    return counts[index];
+                }
+            }
+            return -1;
+        }
+
+        public void put(long key, int depth, long count) {
+            int index = (int) key & (keys.length - 1);
+            synchronized (locks[index & (STRIPES - 1)]) {
+                keys[index] = key;
+                depths[index] = depth;
+                counts[index] = count;
+            }
+        }
+
+    }
+
+    private class PerftTask extends RecursiveTask<Long> {
+
+        private static final long serialVersionUID = 1L;
+
+        private ChessState state;
+        private int depth;
+        private int splitDepth;
+
+        public PerftTask(ChessState state, int depth, int splitDepth) {
+            this.state = state;
+            this.depth = depth;
+            this.splitDepth = splitDepth;
+        }
+
+        @Override
+        protected Long compute() {
+            if (splitDepth <= 0 || depth <= 1) {
+                int[][] moves = new int[depth][ChessState.MAX_MOVES];
+                ChessUndo[] undos = new ChessUndo[depth];
+                for (int i = 0; i < depth; i++) {
+                    undos[i] = new ChessUndo();
+                }
+                return count(state, depth, moves, undos);
+            }
+
+            /* Give each move its own copy of the state and count them in parallel */
+            int[] moves = new int[ChessState.MAX_MOVES];
+            var n = state.getLegalMoves(moves);
+            var tasks = new ArrayList<PerftTask>(n);
+            for (int i = 0; i < n; i++) {
+                var child = state.clone();
+                child.makeMove(moves[i], new ChessUndo());
+                tasks.add(new PerftTask(child, depth - 1, splitDepth - 1));
+            }
+            invokeAll(tasks);
+
+            long count = 0;
+            for (var task : tasks) {
+                count += task.join();
+            }
+            return count;
+        }
+
+    }
+
+    private ForkJoinPool pool;
+    private int splitDepth;
+    private Table table;
+
+    public ParallelPerft() {
+        this(ForkJoinPool.commonPool(), 2, 1 << 20);
+    }
+
+    /*
+     * Count on the given pool, splitting the moves of the first splitDepth plies
+     * into separate tasks and sharing counts between them in a table with
+     * tableSize entries
+     */
+    public ParallelPerft(ForkJoinPool pool, int splitDepth, int tableSize) {
+        this.pool = pool;
+        this.splitDepth = splitDepth;
+        table = new Table(tableSize);
+    }
+
+    public long perft(ChessState state, int depth) {
+        if (depth <= 0) {
+            return 1;
+        }
+
+        return pool.invoke(new PerftTask(state.clone(), depth, splitDepth));
+    }
+
+    private long count(ChessState state, int depth, int[][] moves, ChessUndo[] undos) {
+        if (depth > 1) {
+            var count = table.get(state.getKey(), depth);
+            if (count >= 0) {
+                return count;
+            }
+        }
+
+        var buffer = moves[depth - 1];
+        var n = state.getLegalMoves(buffer);
+        if (depth == 1) {
+            return n;
+        }
+
+        long count = 0;
+        var undo = undos[depth - 1];
+        for (int i = 0; i < n; i++) {
+            state.makeMove(buffer[i], undo);
+            count += count(state, depth - 1, moves, undos);
+            state.unmakeMove(undo);
+        }
+
+        table.put(state.getKey(), depth, count);
+        return count;
+    }
+
+}
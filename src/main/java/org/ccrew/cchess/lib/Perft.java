@@ -0,0 +1,45 @@
+package org.ccrew.cchess.lib;
+
+public final class Perft {
+
+    private Perft() {
+    }
+
+    /*
+     * Usage: Perft DEPTH [FEN] [divide|parallel]
+     *
+     * Prints the number of positions reached from FEN (the standard setup by
+     * default) and how fast they were counted.
+     */
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.err.printf("Usage: Perft DEPTH [FEN] [divide|parallel]\n");
+            System.exit(1);
+        }
+
+        int depth = Integer.parseInt(args[0]);
+        var fen = args.length > 1 ? args[1] : ChessGame.STANDARD_SETUP;
+        var mode = args.length > 2 ? args[2] : "";
+
+        var state = new ChessState(fen);
+        long start = System.nanoTime();
+        long nodes;
+        if (mode.equals("divide")) {
+            nodes = 0;
+            for (var entry : state.divide(depth).entrySet()) {
+                System.out.printf("%s: %d\n", entry.getKey(), entry.getValue());
+                nodes += entry.getValue();
+            }
+        } else if (mode.equals("parallel")) {
+            nodes = new ParallelPerft().perft(state, depth);
+        } else {
+            nodes = state.perft(depth);
+        }
+        long elapsed = Math.max(System.nanoTime() - start, 1);
+
+        System.out.printf("Nodes: %d\n", nodes);
+        System.out.printf("Time: %d ms\n", elapsed / 1000000);
+        System.out.printf("Nodes/s: %d\n", nodes * 1000000000L / elapsed);
+    }
+
+}
@@ -0,0 +1,173 @@
+package org.ccrew.cchess.lib;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/*
+ * Shares the Strings of tag names and values between the games of a parser.
+ * Known tag names always give the same constant String. Other names and values
+ * go through a cache where each slot keeps the last String hashed to it, so the
+ * pool stays the same size however many distinct values a file has. Values can
+ * be looked up from chars or UTF-8 bytes without creating a String first.
+ */
+class TagPool {
+
+    /* Tag names common in PGN databases */
+    static final String[] KNOWN_NAMES = { "Event", "Site", "Date", "Round", "White", "Black", "Result", "WhiteElo",
+            "BlackElo", "WhiteTitle", "BlackTitle", "WhiteFideId", "BlackFideId", "WhiteTeam", "BlackTeam",
+            "WhiteRatingDiff", "BlackRatingDiff", "ECO", "Opening", "Variation", "SubVariation", "EventDate",
+            "EventType", "EventRounds", "EventCountry", "Board", "Stage", "Section", "TimeControl", "Time", "UTCDate",
+            "UTCTime", "Termination", "Annotator", "Mode", "PlyCount", "SetUp", "FEN", "Variant", "Source",
+            "SourceDate", "Link", "X-GNOME-ClockType", "X-GNOME-TimerIncrement", "X-GNOME-WhiteTimeLeft",
+            "X-GNOME-BlackTimeLeft", "X-GNOME-WhiteAI", "X-GNOME-WhiteLevel", "X-GNOME-BlackAI",
+            "X-GNOME-BlackLevel" };
+
+    /* Values every pool starts with, so they are the same Strings as the defaults of PGNGame */
+    private static final String[] COMMON_VALUES = { "?", "????.??.??", "-", PGNGame.RESULT_IN_PROGRESS,
+            PGNGame.RESULT_WHITE, PGNGame.RESULT_BLACK, PGNGame.RESULT_DRAW };
+
+    private static final int CACHE_SIZE = 4096;
+
+    /* Longer values are rarely repeated and are not cached */
+    private static final int MAX_VALUE_LENGTH = 64;
+
+    /* Open addressing table of the known names, never full */
+    private static final String[] names = new String[128];
+
+    static {
+        for (var name : KNOWN_NAMES) {
+            var index = hash(name) & (names.length - 1);
+            while (names[index] != null) {
+                index = (index + 1) & (names.length - 1);
+            }
+            names[index] = name;
+        }
+    }
+
+    private final String[] values = new String[CACHE_SIZE];
+    /* UTF-8 encoding of values looked up as bytes, null for the ones looked up as chars */
+    private final byte[][] encodings = new byte[CACHE_SIZE][];
+
+    TagPool() {
+        for (var value : COMMON_VALUES) {
+            var index = hash(value) & (CACHE_SIZE - 1);
+            values[index] = value;
+            encodings[index] = value.getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    private static int hash(CharSequence text) {
+        var hash = 0;
+        for (var i = 0; i < text.length(); i++) {
+            hash = hash * 31 + text.charAt(i);
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    private static int hash(ByteBuffer buffer, int start, int end) {
+        var hash = 0;
+        for (var i = start; i < end; i++) {
+            hash = hash * 31 + (buffer.get(i) & 0xff);
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    /* The known name with the given chars, or null */
+    private static String findName(CharSequence name, int hash) {
+        for (var index = hash & (names.length - 1); names[index] != null; index = (index + 1) & (names.length - 1)) {
+            if (names[index].contentEquals(name)) {
+                return names[index];
+            }
+        }
+        return null;
+    }
+
+    /* The known name with the given ASCII bytes, or null */
+    private static String findName(ByteBuffer buffer, int start, int end, int hash) {
+        for (var index = hash & (names.length - 1); names[index] != null; index = (index + 1) & (names.length - 1)) {
+            var name = names[index];
+            if (name.length() == end - start) {
+                var i = 0;
+                while (i < name.length() && buffer.get(start + i) == name.charAt(i)) {
+                    i++;
+                }
+                if (i == name.length()) {
+                    return name;
+                }
+            }
+        }
+        return null;
+    }
+
+    public String getName(CharSequence name) {
+        var hash = hash(name);
+        var known = findName(name, hash);
+        return known != null ? known : get(name, hash);
+    }
+
+    /* Tag names are ASCII */
+    public String getName(ByteBuffer buffer, int start, int end) {
+        var hash = hash(buffer, start, end);
+        var known = findName(buffer, start, end, hash);
+        return known != null ? known : get(buffer, start, end, hash);
+    }
+
+    public String getValue(CharSequence value) {
+        if (value.length() > MAX_VALUE_LENGTH) {
+            return value.toString();
+        }
+        return get(value, hash(value));
+    }
+
+    /* Value held as UTF-8 */
+    public String getValue(ByteBuffer buffer, int start, int end) {
+        if (end - start > MAX_VALUE_LENGTH) {
+            return decode(buffer, start, end);
+        }
+        return get(buffer, start, end, hash(buffer, start, end));
+    }
+
+    private String get(CharSequence text, int hash) {
+        var index = hash & (CACHE_SIZE - 1);
+        var value = values[index];
+        if (value != null && value.contentEquals(text)) {
+            return value;
+        }
+        value = text.toString();
+        values[index] = value;
+        encodings[index] = null;
+        return value;
+    }
+
+    private String get(ByteBuffer buffer, int start, int end, int hash) {
+        var index = hash & (CACHE_SIZE - 1);
+        var encoding = encodings[index];
+        if (encoding != null && encoding.length == end - start) {
+            var i = 0;
+            while (i < encoding.length && buffer.get(start + i) == encoding[i]) {
+                i++;
+            }
+            if (i == encoding.length) {
+                return values[index];
+            }
+        }
+        encoding = copy(buffer, start, end);
+        var value = new String(encoding, StandardCharsets.UTF_8);
+        values[index] = value;
+        encodings[index] = encoding;
+        return value;
+    }
+
+    private static String decode(ByteBuffer buffer, int start, int end) {
+        return new String(copy(buffer, start, end), StandardCharsets.UTF_8);
+    }
+
+    private static byte[] copy(ByteBuffer buffer, int start, int end) {
+        var bytes = new byte[end - start];
+        for (var i = start; i < end; i++) {
+            bytes[i - start] = buffer.get(i);
+        }
+        return bytes;
+    }
+
+}
@@ -0,0 +1,45 @@
+package org.ccrew.cchess.lib;
+
+import java.util.SplittableRandom;
+
+public final class Zobrist {
+
+    private Zobrist() {
+    }
+
+    /* Fixed seed so positions get the same keys on every run */
+    private static final long SEED = 0x63636865737321L;
+
+    /* Key for each piece on each location, indexed like BitBoard.moveMasks */
+    public static final long[] pieceKeys = new long[2 * 6 * 64];
+
+    /* Keys for each castling right */
+    public static final long[] kingsideCastleKeys = new long[2];
+    public static final long[] queensideCastleKeys = new long[2];
+
+    /* Key for each en passant target square */
+    public static final long[] enPassantKeys = new long[64];
+
+    /* Key toggled when black is on move */
+    public static final long blackToMoveKey;
+
+    static {
+        var random = new SplittableRandom(SEED);
+        for (int i = 0; i < pieceKeys.length; i++) {
+            pieceKeys[i] = random.nextLong();
+        }
+        for (int i = 0; i < 2; i++) {
+            kingsideCastleKeys[i] = random.nextLong();
+            queensideCastleKeys[i] = random.nextLong();
+        }
+        for (int i = 0; i < enPassantKeys.length; i++) {
+            enPassantKeys[i] = random.nextLong();
+        }
+        blackToMoveKey = random.nextLong();
+    }
+
+    public static long getPieceKey(Color color, PieceType type, int index) {
+        return pieceKeys[color.ordinal() * 64 * 6 + type.ordinal() * 64 + index];
+    }
+
+}
@@ -4,6 +4,8 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.nio.charset.StandardCharsets;
+
 import org.ccrew.cchess.util.Out;
 import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
@@ -51,6 +53,313 @@ public class ChessGameTest {
         assertFalse(state.move(move, false), String.format("%s + %s is valid", fen, move));
     }
 
+    protected static void testLegalMoves(String fen, int count) {
+        ChessState state = new ChessState(fen);
+        int[] moves = new int[ChessState.MAX_MOVES];
+        var n = state.getLegalMoves(moves);
+        assertEquals(count, n, String.format("%s has %d legal moves not %d", fen, n, count));
+
+        for (int i = 0; i < n; i++) {
+            assertTrue(state.move(moves[i], false), String.format("%s generated invalid move %d", fen, moves[i]));
+        }
+    }
+
+    @Test
+    public void testLegalMoves() {
+        /* Legal moves */
+        testLegalMoves(ChessGame.STANDARD_SETUP, 20);
+        testLegalMoves("r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1", 48);
+        testLegalMoves("8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1", 14);
+        testLegalMoves("k7/8/8/8/8/8/1R6/R7 b - - 1 1", 0);
+    }
+
+    @Test
+    public void testMakeUnmakeMove() {
+        /* Taking back a move restores the state */
+        for (var fen : new String[] { "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+                "8/P1k5/8/1Pp5/8/8/5K2/8 w - c6 0 2" }) {
+            ChessState state = new ChessState(fen);
+            var stateFen = state.getFen();
+            int[] moves = new int[ChessState.MAX_MOVES];
+            var n = state.getLegalMoves(moves);
+            var undo = new ChessUndo();
+            for (int i = 0; i < n; i++) {
+                ChessState moved = state.clone();
+                moved.number++;
+                assertTrue(moved.move(moves[i]));
+
+                state.makeMove(moves[i], undo);
+                assertEquals(moved.getFen(), state.getFen());
+                assertEquals(moved.getKey(), state.getKey());
+                assertEquals(moved.checkState, state.checkState);
+
+                state.unmakeMove(undo);
+                assertEquals(stateFen, state.getFen());
+                assertEquals(new ChessState(fen).getKey(), state.getKey());
+            }
+        }
+    }
+
+    @Test
+    public void testDecodeSan() {
+        /* Every legal move decodes back from its SAN */
+        for (var fen : new String[] { ChessGame.STANDARD_SETUP,
+                "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+                "8/P1k5/8/1Pp5/8/8/5K2/8 w - c6 0 2", "1k6/8/8/3N1N2/8/3N4/8/K7 w - - 0 1",
+                "4k3/8/8/8/1b6/8/3N4/4K1N1 w - - 0 1", "r3k2r/8/8/8/8/8/8/R3K2R b KQkq - 0 1" }) {
+            ChessState state = new ChessState(fen);
+            int[] moves = new int[ChessState.MAX_MOVES];
+            var n = state.getLegalMoves(moves);
+            for (int i = 0; i < n; i++) {
+                ChessState moved = state.clone();
+                assertTrue(moved.move(moves[i]));
+                var san = moved.lastMove.getSan();
+                assertEquals(moves[i], state.decodeSan(san), String.format("%s + %s decoded wrongly", fen, san));
+            }
+        }
+
+        ChessState state = new ChessState("4k3/8/8/8/1b6/8/3N4/4K1N1 w - - 0 1");
+        assertEquals(PackedMove.encode(6, 21), state.decodeSan("1. Nf3+ *", 3, 7));
+        assertEquals(PackedMove.encode(6, 21), state.decodeSan("g1f3"));
+        assertEquals(PackedMove.NONE, state.decodeSan("Ndf3"));
+        assertEquals(PackedMove.NONE, state.decodeSan("Nf4"));
+        assertEquals(PackedMove.NONE, state.decodeSan("Nf3?"));
+        state = new ChessState("1k6/8/8/3N1N2/8/3N4/8/K7 w - - 0 1");
+        assertEquals(PackedMove.NONE, state.decodeSan("Ne3"));
+        assertEquals(PackedMove.encode(35, 20), state.decodeSan("Nde3"));
+        assertEquals(PackedMove.encode(37, 20), state.decodeSan("Nfe3"));
+        assertEquals(PackedMove.NONE, state.decodeSan("Ndb4"));
+        assertEquals(PackedMove.encode(35, 25), state.decodeSan("N5b4"));
+        assertEquals(PackedMove.encode(35, 20), state.decodeSan("Nd5e3"));
+    }
+
+    @Test
+    public void testPackedMoveConversion() {
+        /* Packed moves carry the same information as the ChessMove made by moving */
+        for (var fen : new String[] { "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+                "8/P1k5/8/1Pp5/8/8/5K2/8 w - c6 0 2", "1k6/8/8/3N1N2/8/3N4/8/K7 w - - 0 1",
+                "r3k2r/8/8/8/8/8/8/R3K2R b KQkq - 0 1", "3k4/1P6/8/8/8/8/8/R3K3 w Q - 0 1" }) {
+            ChessState state = new ChessState(fen);
+            var stateFen = state.getFen();
+            int[] moves = new int[ChessState.MAX_MOVES];
+            var n = state.getLegalMoves(moves);
+            for (int i = 0; i < n; i++) {
+                ChessState moved = state.clone();
+                assertTrue(moved.move(moves[i]));
+                var expected = moved.lastMove;
+                assertEquals(moves[i], PackedMove.encode(expected));
+                assertEquals(expected.victim != null, PackedMove.isCapture(moves[i]));
+                assertEquals(expected.enPassant, PackedMove.isEnPassant(moves[i]));
+                assertEquals(expected.castlingRook != null, PackedMove.isCastling(moves[i]));
+
+                var move = state.toChessMove(moves[i]);
+                assertEquals(stateFen, state.getFen());
+                assertEquals(expected.getSan(), move.getSan());
+                assertEquals(expected.getLan(), move.getLan());
+                assertEquals(expected.number, move.number);
+                assertEquals(expected.piece, move.piece);
+                assertEquals(expected.victim, move.victim);
+                assertEquals(expected.castlingRook, move.castlingRook);
+                assertEquals(expected.checkState, move.checkState);
+            }
+        }
+    }
+
+    @Test
+    public void testToChessMoveKeepsPosition() {
+        /* Moves after which en passant or castling moves are tried for the check state */
+        for (var fen : new String[] { "8/8/8/4k3/4p3/8/3P4/4K3 w - - 0 1", "8/8/8/3k4/3Pp3/8/8/4K3 b - d3 0 1",
+                "r3k2r/8/8/8/8/8/8/R3K2R w KQkq - 0 1", "r3k2r/8/8/8/8/8/8/R3K2R b KQkq - 0 1" }) {
+            ChessState state = new ChessState(fen);
+            var stateFen = state.getFen();
+            var key = state.getKey();
+            int[] moves = new int[ChessState.MAX_MOVES];
+            var n = state.getLegalMoves(moves);
+            for (int i = 0; i < n; i++) {
+                ChessState moved = state.clone();
+                assertTrue(moved.move(moves[i]));
+                assertEquals(moved.lastMove.getSan(), state.toChessMove(moves[i]).getSan());
+                assertEquals(stateFen, state.getFen());
+                assertEquals(key, state.getKey());
+            }
+        }
+        ChessState state = new ChessState("8/8/8/4k3/4p3/8/3P4/4K3 w - - 0 1");
+        assertEquals("d4+", state.toChessMove(state.decodeSan("d4")).getSan());
+    }
+
+    @Test
+    public void testNotation() {
+        /* Moves written into buffers match their Strings */
+        for (var fen : new String[] { "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+                "8/P1k5/8/1Pp5/8/8/5K2/8 w - c6 0 2", "1k6/8/8/3N1N2/8/3N4/8/K7 w - - 0 1",
+                "3k4/1P6/8/8/8/8/8/R3K3 w Q - 0 1" }) {
+            ChessState state = new ChessState(fen);
+            int[] moves = new int[ChessState.MAX_MOVES];
+            var n = state.getLegalMoves(moves);
+            var builder = new StringBuilder();
+            var buffer = new byte[16];
+            for (int i = 0; i < n; i++) {
+                var start = PackedMove.getStart(moves[i]);
+                var end = PackedMove.getEnd(moves[i]);
+                var engine = String.format("%c%d%c%d", 'a' + ChessState.getFile(start), ChessState.getRank(start) + 1,
+                        'a' + ChessState.getFile(end), ChessState.getRank(end) + 1);
+                if (PackedMove.isPromotion(moves[i])) {
+                    engine += PackedMove.getPromotionType(moves[i]) == PieceType.KNIGHT ? "n"
+                            : PackedMove.getPromotionType(moves[i]).name().substring(0, 1).toLowerCase();
+                }
+                assertEquals(engine, PackedMove.getEngine(moves[i]));
+                assertEquals(engine, new String(buffer, 0, Notation.writeEngine(buffer, 0, moves[i])));
+
+                var move = state.toChessMove(moves[i]);
+                assertEquals(engine, move.getEngine());
+                builder.setLength(0);
+                assertEquals(move.getSan() + " " + move.getLan(),
+                        move.appendSan(builder).append(' ').toString() + move.getLan());
+                assertEquals(move.getSan(), new String(buffer, 0, move.writeSan(buffer, 0)));
+            }
+        }
+        assertEquals("a1", Notation.getSquareName(0));
+        assertEquals("h8", Notation.getSquareName(63));
+
+        /* Castling */
+        testNotation("r3k2r/8/8/8/8/8/8/R3K2R w KQkq - 0 1", "e1g1", "O-O", "O-O", "O-O");
+        testNotation("r3k2r/8/8/8/8/8/8/R3K2R b KQkq - 0 1", "e8c8", "O-O-O", "O-O-O", "O-O-O");
+        /* Disambiguation by file and by rank */
+        testNotation("1k6/8/8/3N1N2/8/3N4/8/K7 w - - 0 1", "d5e3", "Nde3", "d5-e3", "♘de3");
+        testNotation("1k6/8/8/3N1N2/8/3N4/8/K7 w - - 0 1", "d5b4", "N5b4", "d5-b4", "♘5b4");
+        /* Promotion with check, for both colors */
+        testNotation("3k4/1P6/8/8/8/8/8/R3K3 w Q - 0 1", "b7b8q", "b8=Q+", "b7-b8=Q+", "b8=♕+");
+        testNotation("4k3/8/8/8/8/8/1p6/3K4 b - - 0 1", "b2b1n", "b1=N", "b2-b1=N", "b1=♞");
+        testNotation("4k3/8/8/8/8/8/1p6/3K4 b - - 0 1", "b2b1q", "b1=Q+", "b2-b1=Q+", "b1=♛+");
+        /* En passant */
+        testNotation("8/P1k5/8/1Pp5/8/8/5K2/8 w - c6 0 2", "b5c6", "bxc6", "b5xc6", "bxc6");
+        /* Black pieces in FAN */
+        testNotation("r3k2r/8/8/8/8/8/8/R3K2R b KQkq - 0 1", "a8d8", "Rd8", "a8-d8", "♜d8");
+        testNotation("r3k2r/8/8/8/8/8/8/R3K2R b KQkq - 0 1", "h8h1", "Rxh1+", "h8xh1+", "♜xh1+");
+    }
+
+    /* Notation of the legal move written in engine format, both as made and as converted from its packed form */
+    private static void testNotation(String fen, String engine, String san, String lan, String fan) {
+        ChessState state = new ChessState(fen);
+        int[] moves = new int[ChessState.MAX_MOVES];
+        var n = state.getLegalMoves(moves);
+        var move = PackedMove.NONE;
+        for (int i = 0; i < n; i++) {
+            if (PackedMove.getEngine(moves[i]).equals(engine)) {
+                move = moves[i];
+            }
+        }
+        assertTrue(move != PackedMove.NONE, String.format("%s is not a legal move in %s", engine, fen));
+        var buffer = new byte[16];
+        assertEquals(engine, new String(buffer, 0, Notation.writeEngine(buffer, 0, move)));
+
+        ChessState moved = state.clone();
+        assertTrue(moved.move(move));
+        for (var chessMove : new ChessMove[] { moved.lastMove, state.toChessMove(move) }) {
+            assertEquals(san, chessMove.getSan());
+            assertEquals(san, chessMove.appendSan(new StringBuilder()).toString());
+            assertEquals(san, new String(buffer, 0, chessMove.writeSan(buffer, 0), StandardCharsets.US_ASCII));
+            assertEquals(lan, chessMove.getLan());
+            assertEquals(fan, chessMove.getFan());
+            assertEquals(engine, chessMove.getEngine());
+        }
+    }
+
+    @Test
+    public void testSetFen() {
+        /* One state set up from each FEN in turn matches a state made from it */
+        var state = new ChessState(ChessGame.STANDARD_SETUP);
+        var buffer = new byte[ChessState.MAX_FEN_LENGTH];
+        int[] moves = new int[ChessState.MAX_MOVES];
+        int[] expectedMoves = new int[ChessState.MAX_MOVES];
+        for (var fen : new String[] { "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+                "8/P1k5/8/1Pp5/8/8/5K2/8 w - c6 0 2", "r3k2r/8/8/8/8/8/8/R3K2R b Kq - 12 40",
+                "4k3/8/8/8/1b6/8/3N4/4K1N1 w - - 0 1", ChessGame.STANDARD_SETUP }) {
+            var expected = new ChessState(fen);
+            state.setFen(fen);
+            assertEquals(expected.getFen(), state.getFen());
+            assertEquals(expected.getFen(), new String(buffer, 0, state.writeFen(buffer, 0)));
+            assertEquals(expected.getKey(), state.getKey());
+            assertEquals(expected.checkState, state.checkState);
+            var n = expected.getLegalMoves(expectedMoves);
+            assertEquals(n, state.getLegalMoves(moves));
+            for (var i = 0; i < n; i++) {
+                assertEquals(expectedMoves[i], moves[i]);
+            }
+        }
+        assertEquals("r3k2r/8/8/8/8/8/8/R3K2R b Kq - 12 40",
+                new ChessState("  r3k2r/8/8/8/8/8/8/R3K2R  b Kq -  12 40 ").getFen());
+
+        /* Setting up from part of a longer text, without the move counters */
+        var epd = "rnbqkbnr/pppppppp/8/8/4P3/8/PPPP1PPP/RNBQKBNR b KQkq e3 bm e5;";
+        state.setFen(epd, 0, epd.indexOf(" bm"));
+        assertEquals("rnbqkbnr/pppppppp/8/8/4P3/8/PPPP1PPP/RNBQKBNR b KQkq e3 0 1", state.getFen());
+
+        /* An invalid FEN leaves the state as it was */
+        for (var fen : new String[] { "8/8 w", "rnbqkbnr/pppppppp/9/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1",
+                "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR x KQkq - 0 1",
+                "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQxq - 0 1",
+                "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq e - 0 1",
+                "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - a 1", "" }) {
+            var thrown = false;
+            try {
+                state.setFen(fen);
+            } catch (IllegalArgumentException e) {
+                thrown = true;
+            }
+            assertTrue(thrown, fen);
+            assertEquals("rnbqkbnr/pppppppp/8/8/4P3/8/PPPP1PPP/RNBQKBNR b KQkq e3 0 1", state.getFen());
+        }
+    }
+
+    @Test
+    public void testPositionKey() {
+        /* Keys are updated incrementally to match the position */
+        ChessState state = new ChessState(ChessGame.STANDARD_SETUP);
+        var startKey = state.getKey();
+        for (var move : new String[] { "e4", "d5", "exd5", "c5", "dxc6", "Nf6", "Nf3", "Bd7", "Bc4", "Qb6", "O-O",
+                "bxc6" }) {
+            assertTrue(state.move(move), String.format("%s is an invalid move", move));
+            assertEquals(new ChessState(state.getFen()).getKey(), state.getKey(),
+                    String.format("%s has the wrong key after %s", state.getFen(), move));
+        }
+
+        /* Transpositions have the same key */
+        state = new ChessState(ChessGame.STANDARD_SETUP);
+        for (var move : new String[] { "Nf3", "Nf6", "Ng1", "Ng8" }) {
+            state.move(move);
+        }
+        assertEquals(startKey, state.getKey());
+        assertEquals(new ChessState(ChessGame.STANDARD_SETUP), state);
+        assertEquals(new ChessState(ChessGame.STANDARD_SETUP).hashCode(), state.hashCode());
+    }
+
+    @Test
+    public void testThreeFoldRepetition() throws PGNError {
+        /* Three-fold repetition */
+        var game = new ChessGame(new String[] { "Nf3", "Nf6", "Ng1", "Ng8", "Nf3", "Nf6", "Ng1" });
+        assertFalse(game.isThreeFoldRepeat());
+        game = new ChessGame(new String[] { "Nf3", "Nf6", "Ng1", "Ng8", "Nf3", "Nf6", "Ng1", "Ng8" });
+        assertTrue(game.isThreeFoldRepeat());
+
+        /* Undo removes the repeated positions */
+        game.getWhite().undo();
+        assertFalse(game.isThreeFoldRepeat());
+
+        /* Positions before irreversible moves don't count */
+        game = new ChessGame(new String[] { "Nf3", "Nf6", "Ng1", "Ng8", "e4", "e5", "Nf3", "Nf6", "Ng1", "Ng8" });
+        assertFalse(game.isThreeFoldRepeat());
+
+        /* Unless the irreversible moves are undone */
+        game = new ChessGame(new String[] { "Nf3", "Nf6", "Ng1", "Ng8", "e4", "e5" });
+        game.start();
+        game.getWhite().undo();
+        for (var move : new String[] { "Nf3", "Nf6", "Ng1", "Ng8" }) {
+            assertTrue(game.getCurrentPlayer().move(move));
+        }
+        assertTrue(game.isThreeFoldRepeat());
+    }
+
     @Test
     public void testPawnMove() {
         /* Pawn move */
@@ -99,13 +408,15 @@ public class ChessGameTest {
     @Test
     public void testCastleKingside() {
         /* Castle kingside */
-        testGoodMove("8/8/8/8/8/8/8/4K2R w K - 0 1", "O-O", "8/8/8/8/8/8/8/5RK1 b - - 1 1");
+        testGoodMove("8/8/8/8/8/8/8/4K2R w K - 0 1", "O-O", "8/8/8/8/8/8/8/5RK1 b - - 1 1", ChessResult.IN_PROGRESS,
+                ChessRule.CHECKMATE, true);
     }
 
     @Test
     public void testCastleQueenside() {
         /* Castle queenside */
-        testGoodMove("8/8/8/8/8/8/8/R3K3 w Q - 0 1", "O-O-O", "8/8/8/8/8/8/8/2KR4 b - - 1 1");
+        testGoodMove("8/8/8/8/8/8/8/R3K3 w Q - 0 1", "O-O-O", "8/8/8/8/8/8/8/2KR4 b - - 1 1", ChessResult.IN_PROGRESS,
+                ChessRule.CHECKMATE, true);
     }
 
     @Test
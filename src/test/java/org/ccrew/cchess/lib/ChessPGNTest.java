@@ -1,9 +1,32 @@
 package org.ccrew.cchess.lib;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 public class ChessPGNTest {
 
@@ -26,6 +49,44 @@ public class ChessPGNTest {
         assertEquals(moves, moveString);
     }
 
+    /* The byte tokenizer reads the same games as the reader, with or without lazy moves */
+    private static void testTokenizer(String data) {
+        var reader = new PGNReader(new StringReader(data));
+        var tokenizer = new PGNTokenizer(ByteBuffer.wrap(data.getBytes(StandardCharsets.UTF_8)));
+        var lazyTokenizer = new PGNTokenizer(ByteBuffer.wrap(data.getBytes(StandardCharsets.UTF_8)));
+        lazyTokenizer.setLazyMoves(true);
+        while (reader.hasNext()) {
+            var expected = reader.next();
+            var game = tokenizer.readGame();
+            assertNotNull(game, String.format("%s is missing game %s", data, expected.tags));
+            assertSameGame(expected, game);
+            var lazyGame = lazyTokenizer.readGame();
+            assertNotNull(lazyGame);
+            assertSameGame(expected, lazyGame);
+        }
+        assertNull(tokenizer.readGame());
+        assertNull(lazyTokenizer.readGame());
+        assertEquals(reader.hasFailed(), tokenizer.hasFailed());
+        assertEquals(reader.hasFailed(), lazyTokenizer.hasFailed());
+    }
+
+    /* Same tags, moves and annotations */
+    private static void assertSameGame(PGNGame expected, PGNGame game) {
+        assertEquals(expected.tags, game.tags);
+        assertEquals(expected.moves, game.moves);
+        assertEquals(writeGame(expected), writeGame(game));
+    }
+
+    private static String writeGame(PGNGame game) {
+        var output = new StringWriter();
+        try (var writer = new PGNWriter(output)) {
+            writer.write(game);
+        } catch (IOException e) {
+            fail(e);
+        }
+        return output.toString();
+    }
+
     @Test
     public void testSimpleFileInExportFormat() {
         /* Simple file in export format */
@@ -90,4 +151,499 @@ public class ChessPGNTest {
         testPGNFile("e4 e5 $1 Nc3 $2", "e4 e5 Nc3");
     }
 
+    @Test
+    public void testResultMarker() {
+        /* The result ends the game rather than being read as a move */
+        PGN file;
+        try {
+            file = new PGN("1. e4 e5 1-0\n");
+        } catch (PGNError e) {
+            fail(e.getMessage());
+            return;
+        }
+
+        assertEquals(PGNGame.RESULT_WHITE, file.games.get(0).getResult());
+        assertEquals(List.of("e4", "e5"), file.games.get(0).moves);
+    }
+
+    @Test
+    public void testTagValues() {
+        /* Each tag value starts empty, without the end of the one before */
+        PGN file;
+        try {
+            file = new PGN("[Event \"First\"]\n" + "[Site \"Here\"]\n" + "[White \"\"]\n" + "\n" + "1. e4 *\n");
+        } catch (PGNError e) {
+            fail(e.getMessage());
+            return;
+        }
+
+        var game = file.games.get(0);
+        assertEquals("First", game.getEvent());
+        assertEquals("Here", game.tags.get("Site"));
+        assertEquals("", game.getWhite());
+    }
+
+    @Test
+    public void testNoEmptyGameAtEnd() {
+        /* Nothing after the last result makes another game */
+        PGN file;
+        try {
+            file = new PGN("[Event \"Only\"]\n" + "\n" + "1. e4 e5 1-0\n" + "\n");
+        } catch (PGNError e) {
+            fail(e.getMessage());
+            return;
+        }
+
+        assertEquals(1, file.games.size());
+    }
+
+    @Test
+    public void testMultipleGames() {
+        /* Games separated by their termination markers */
+        PGN file;
+        try {
+            file = new PGN("[Event \"First\"]\n" + "[Result \"1-0\"]\n" + "\n" + "1. e4 e5 1-0\n" + "\n"
+                    + "[Event \"Second\"]\n" + "[Result \"1/2-1/2\"]\n" + "\n" + "1. d4 d5 2. c4 1/2-1/2\n");
+        } catch (PGNError e) {
+            fail(e.getMessage());
+            return;
+        }
+
+        assertEquals(2, file.games.size());
+        assertEquals("First", file.games.get(0).getEvent());
+        assertEquals(PGNGame.RESULT_WHITE, file.games.get(0).getResult());
+        assertEquals(List.of("e4", "e5"), file.games.get(0).moves);
+        assertEquals("Second", file.games.get(1).getEvent());
+        assertEquals(PGNGame.RESULT_DRAW, file.games.get(1).getResult());
+        assertEquals(List.of("d4", "d5", "c4"), file.games.get(1).moves);
+    }
+
+    @Test
+    public void testReader() {
+        /* Games read one at a time, up to the first syntax error */
+        var data = "[Event \"First\"]\n\n1. e4 e5 1-0\n\n" + "[Event \"Second\"]\n\n1. d4 *\n\n"
+                + "[Event \"Third\"]\n\n1. c4 0-1 ]\n\n" + "[Event \"Fourth\"]\n\n1. Nf3 *\n";
+        var reader = new PGNReader(new StringReader(data));
+        var events = reader.stream().map(PGNGame::getEvent).collect(Collectors.toList());
+        assertEquals(List.of("First", "Second", "Third"), events);
+        assertTrue(reader.hasFailed());
+        assertFalse(reader.hasNext());
+    }
+
+    @Test
+    public void testTokenizer() {
+        testTokenizer("[Event \"?\"]\n" + "[Site \"?\"]\n" + "[Date \"????.??.??\"]\n" + "[Round \"?\"]\n"
+                + "[White \"\"]\n" + "[Black \"\"]\n" + "[Result \"*\"]\n" + "\n" + "1. *\n");
+        testTokenizer("e1");
+        testTokenizer("[Event \"?\"]\r" + "\r" + "1. d4 *\r");
+        testTokenizer("; Line comment 1\n" + "[Event \"?\"]\n" + "; Line comment 2\n" + "\n"
+                + "1. e4 {First Move} e5 {Multi\n" + "line\n"
+                + "comment} 2. Nc3 {More comments} * {Comment about game end}\n");
+        testTokenizer("1.Ra8+ (1.Bxd6+ Kb7 2.Rc7+ Kb8 (2...Kb6 3.Ra6#) 3.Rd7+ Kc8 4.Rc1# (4.Ra8#))");
+        testTokenizer("e4 e5 $1 Nc3 $2");
+        testTokenizer("[White \"J\u00f6rg \\\"Escaped\\\" M\u00fcller\"]\n\n1. e4 e5 1-0\n\n"
+                + "[Event \"Second\"]\n\n1. d4 d5 2. c4 1/2-1/2\n[Event \"Third\"]\n1. c4 0-1 ]\n");
+    }
+
+    /* Games read before the error, and what the reader printed about it */
+    private static String readError(String data, int games) {
+        var err = System.err;
+        var output = new ByteArrayOutputStream();
+        System.setErr(new PrintStream(output, true, StandardCharsets.UTF_8));
+        try {
+            var reader = new PGNReader(new StringReader(data));
+            var count = 0;
+            while (reader.hasNext()) {
+                reader.next();
+                count++;
+            }
+            assertTrue(reader.hasFailed());
+            assertEquals(games, count);
+        } finally {
+            System.setErr(err);
+        }
+        return output.toString(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testReaderErrorLine() {
+        /* Lines ended by CR alone don't pile up, and the shown line is kept short */
+        var data = new StringBuilder();
+        for (var i = 0; i < 2000; i++) {
+            data.append("[Event \"Game\"]\r\r1. e4 e5 1-0\r\r");
+        }
+        data.append("1. e4 ] e5\r");
+        assertEquals("1.7: error: Unexpected character\n1. e4 ]\n      ^\n", readError(data.toString(), 2000));
+
+        data.setLength(0);
+        for (var i = 0; i < 2000; i++) {
+            data.append("1. e4 e5 1-0 ");
+        }
+        var column = data.length() + 7;
+        data.append("1. e4 ] e5\n");
+        var lines = readError(data.toString(), 2000).split("\n");
+        assertEquals(String.format("1.%d: error: Unexpected character", column), lines[0]);
+        assertEquals(200, lines[1].length());
+        assertTrue(lines[1].endsWith("1-0 1. e4 ]"));
+        assertEquals(199, lines[2].indexOf('^'));
+    }
+
+    @Test
+    public void testParallelPGN(@TempDir Path directory) throws Exception {
+        /* Split points must not be found inside comments or tag values */
+        var data = new StringBuilder();
+        for (var i = 0; i < 200; i++) {
+            data.append(String.format("[Event \"Game %d\"]\n[Site \"\\\"\n\n[Event \"]\n\n", i));
+            data.append("1. e4 {Not a split\n\n[Event \"?\"]\n\n} e5 ; {\n2. Nf3 ");
+            data.append(i % 3 == 0 ? "1-0" : "*");
+            data.append("\n\n");
+        }
+        var file = directory.resolve("games.pgn");
+        Files.writeString(file, data);
+
+        var expected = new PGN(file.toFile()).games;
+        assertEquals(200, expected.size());
+
+        var executor = Executors.newFixedThreadPool(4);
+        try {
+            var reader = new ParallelPGN(executor, 100);
+            var games = reader.read(file);
+            assertEquals(expected.size(), games.size());
+            for (var i = 0; i < games.size(); i++) {
+                assertSameGame(expected.get(i), games.get(i));
+            }
+
+            /* Moves decoded from the file when first used */
+            reader.setLazyMoves(true);
+            games = reader.read(file);
+            assertEquals(expected.size(), games.size());
+            for (var i = 0; i < games.size(); i++) {
+                assertEquals(expected.get(i).tags, games.get(i).tags);
+                assertNull(games.get(i).moveTree);
+                assertSameGame(expected.get(i), games.get(i));
+                assertNotNull(games.get(i).moveTree);
+            }
+            reader.setLazyMoves(false);
+
+            var events = new ArrayList<String>();
+            assertEquals(-1, reader.read(file, game -> events.add(game.getEvent()), false));
+            events.sort(null);
+            var expectedEvents = expected.stream().map(PGNGame::getEvent).sorted().collect(Collectors.toList());
+            assertEquals(expectedEvents, events);
+
+            /* A syntax error far into the file is given as its offset in the file, not in its piece */
+            var bad = directory.resolve("bad.pgn");
+            Files.writeString(bad, data + "[Event \"Bad\"]\n\n1. e4 ] e5 1-0\n\n");
+            var count = new int[1];
+            assertEquals(data.length() + 21, reader.read(bad, game -> count[0]++, true));
+            assertEquals(200, count[0]);
+            var error = assertThrows(IOException.class, () -> reader.read(bad));
+            assertEquals(String.format("Unexpected character at byte %d of %s", data.length() + 21, bad),
+                    error.getMessage());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testPGNIndex(@TempDir Path directory) throws Exception {
+        var data = new StringBuilder();
+        for (var i = 0; i < 50; i++) {
+            data.append(String.format("; Game %d\n[White \"Player %d\"]\n[Black \"Player %d\"]\n[ECO \"C%02d\"]\n\n", i,
+                    i % 7, i % 5, i % 10));
+            data.append(String.format("1. e4 {Comment} e5 2. Nf3 (2. f4 exf4) Nc6 %d. a3 1/2-1/2\n\n", 3 + i));
+        }
+        var file = directory.resolve("games.pgn");
+        Files.writeString(file, data);
+        var expected = new PGN(file.toFile()).games;
+
+        var executor = Executors.newFixedThreadPool(2);
+        try {
+            var index = PGNIndex.build(file, new ParallelPGN(executor, 200));
+            assertEquals(50, index.size());
+
+            var indexFile = directory.resolve("games.pgn.idx");
+            index.save(indexFile);
+            index = PGNIndex.load(indexFile);
+            assertEquals(50, index.size());
+
+            for (var i = 0; i < index.size(); i++) {
+                assertEquals(String.format("Player %d", i % 7), index.getTag(i, "White"));
+                assertEquals(String.format("C%02d", i % 10), index.getTag(i, "ECO"));
+                assertNull(index.getTag(i, "Date"));
+
+                var game = index.readGame(file, i);
+                assertEquals(expected.get(i).tags, game.tags);
+                assertEquals(expected.get(i).moves, game.moves);
+            }
+
+            assertArrayEquals(new int[] { 3, 10, 17, 24, 31, 38, 45 }, index.find("White", "Player 3"));
+            assertArrayEquals(new int[0], index.find("Black", "Nobody"));
+
+            /* Saving leaves only the index behind */
+            index.save(indexFile);
+            try (var files = Files.list(directory)) {
+                assertEquals(2, files.count());
+            }
+
+            /* A syntax error fails the whole index rather than leaving games out, and nothing is saved */
+            var bad = directory.resolve("bad.pgn");
+            Files.writeString(bad, data + "[White \"Late\"]\n\n1. e4 ] e5 1-0\n\n");
+            var error = assertThrows(IOException.class, () -> PGNIndex.build(bad, new ParallelPGN(executor, 200)));
+            assertEquals(String.format("Unexpected character at byte %d of %s", data.length() + 22, bad),
+                    error.getMessage());
+            var badIndex = directory.resolve("bad.pgn.idx");
+            assertThrows(IOException.class, () -> PGNIndex.open(bad, badIndex));
+            assertFalse(Files.exists(badIndex));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testBinaryGames() throws Exception {
+        var first = new PGNGame();
+        first.setWhite("Player");
+        first.setResult(PGNGame.RESULT_BLACK);
+        first.moves.addAll(List.of("e4", "d5", "exd5", "c5", "dxc6", "Nf6", "Nf3", "Bd7", "Bc4", "Qb6", "O-O", "bxc6"));
+
+        var second = new PGNGame();
+        second.setWhite("Player");
+        second.setSetUp(true);
+        second.setFen("8/P6k/8/8/8/8/8/K7 w - - 0 1");
+        second.moves.addAll(List.of("a8=N", "Kg6", "Nb6"));
+
+        var invalid = new PGNGame();
+        invalid.moves.addAll(List.of("e4", "e4"));
+
+        /* A move tree with only the mainline loses nothing, but annotations can't be stored */
+        second.moveTree = PGNMoveTree.fromMoves(second.moves);
+        var annotated = new PGNGame();
+        annotated.moves.addAll(List.of("e4", "e5"));
+        annotated.moveTree = PGNMoveTree.fromMoves(annotated.moves);
+        annotated.moveTree.setComment(1, "Best by test");
+        var variation = new PGNGame();
+        variation.moves.addAll(List.of("e4", "e5"));
+        variation.moveTree = PGNMoveTree.fromMoves(variation.moves);
+        variation.moveTree.addMove(1, "c5");
+        var nag = new PGNGame();
+        nag.moves.addAll(List.of("e4"));
+        nag.moveTree = PGNMoveTree.fromMoves(nag.moves);
+        nag.moveTree.addNag(1, 1);
+
+        var output = new ByteArrayOutputStream();
+        try (var writer = new PGNBinaryWriter(output)) {
+            writer.write(first);
+            assertThrows(PGNError.class, () -> writer.write(invalid));
+            assertThrows(PGNError.class, () -> writer.write(annotated));
+            assertThrows(PGNError.class, () -> writer.write(variation));
+            assertThrows(PGNError.class, () -> writer.write(nag));
+            writer.write(second);
+            writer.write(first);
+        }
+
+        try (var reader = new PGNBinaryReader(new ByteArrayInputStream(output.toByteArray()))) {
+            for (var expected : List.of(first, second, first)) {
+                var game = reader.read();
+                assertEquals(expected.tags, game.tags);
+                assertEquals(expected.moves, game.moves);
+            }
+            assertNull(reader.read());
+        }
+    }
+
+    @Test
+    public void testWriter() throws Exception {
+        var game = new PGNGame();
+        game.setWhite("A \"quoted\" \\ name");
+        game.setResult(PGNGame.RESULT_DRAW);
+        game.tags.put("ECO", "C50");
+        for (var i = 0; i < 6; i++) {
+            game.moves.addAll(List.of("Nf3", "Nf6", "Ng1", "Ng8"));
+        }
+
+        var output = new StringWriter();
+        try (var writer = new PGNWriter(output)) {
+            writer.write(game);
+            writer.write(game);
+        }
+
+        var text = "[Event \"?\"]\n[Site \"?\"]\n[Date \"????.??.??\"]\n[Round \"?\"]\n"
+                + "[White \"A \\\"quoted\\\" \\\\ name\"]\n[Black \"?\"]\n[Result \"1/2-1/2\"]\n[ECO \"C50\"]\n\n"
+                + "1. Nf3 Nf6 2. Ng1 Ng8 3. Nf3 Nf6 4. Ng1 Ng8 5. Nf3 Nf6 6. Ng1 Ng8 7. Nf3 Nf6\n"
+                + "8. Ng1 Ng8 9. Nf3 Nf6 10. Ng1 Ng8 11. Nf3 Nf6 12. Ng1 Ng8 1/2-1/2\n\n";
+        assertEquals(text + text, output.toString());
+
+        var games = new PGN(output.toString()).games;
+        assertEquals(2, games.size());
+        assertEquals(game.tags, games.get(1).tags);
+        assertEquals(game.moves, games.get(1).moves);
+    }
+
+    @Test
+    public void testTagPool() throws Exception {
+        var data = "[Event \"Open\"]\n[White \"Carlsen, M\"]\n[WhiteElo \"2850\"]\n[Date \"?\"]\n[Custom \"A \\\"x\\\"\"]\n\n"
+                + "1. e4 *\n\n[Event \"Open\"]\n[White \"Carlsen, M\"]\n[WhiteElo \"2850\"]\n[Date \"?\"]\n"
+                + "[Custom \"A \\\"x\\\"\"]\n\n1. d4 *\n";
+        var tokenizer = new PGNTokenizer(ByteBuffer.wrap(data.getBytes(StandardCharsets.UTF_8)));
+        var games = List.of(new PGN(data).games, List.of(tokenizer.readGame(), tokenizer.readGame()));
+        for (var pair : games) {
+            var first = pair.get(0);
+            var second = pair.get(1);
+            assertEquals("Carlsen, M", first.getWhite());
+            assertEquals("A \"x\"", first.tags.get("Custom"));
+            /* Repeated values and names are the same Strings, known names the constants */
+            assertSame(first.getWhite(), second.getWhite());
+            assertSame(first.tags.get("WhiteElo"), second.tags.get("WhiteElo"));
+            assertSame(first.tags.get("Custom"), second.tags.get("Custom"));
+            assertSame(new PGNGame().getSite(), first.getDate());
+            for (var name : first.tags.keySet()) {
+                var known = List.of(TagPool.KNOWN_NAMES).indexOf(name);
+                if (known >= 0) {
+                    assertSame(TagPool.KNOWN_NAMES[known], name);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testMoveTree() throws Exception {
+        var data = "[Event \"Annotated\"]\n\n{Opening comment} 1. e4 {[%clk 0:01:02.5]} e5 $1 $14\n"
+                + "(1... c5 {Sicilian} 2. Nf3 (2. c3) d6) ; French\n(1... e6) 2. Nf3 Nc6 1-0\n";
+        testTokenizer(data);
+
+        var game = new PGN(data).games.get(0);
+        assertEquals(List.of("e4", "e5", "Nf3", "Nc6"), game.moves);
+        var tree = game.moveTree;
+        assertNotNull(tree);
+        assertEquals(List.of("e4", "e5", "Nf3", "Nc6"), tree.getMainline());
+        assertEquals("Opening comment", tree.getComment(PGNMoveTree.ROOT));
+
+        var e4 = tree.getFirstChild(PGNMoveTree.ROOT);
+        assertEquals(62500, tree.getClock(e4));
+        var e5 = tree.getFirstChild(e4);
+        assertArrayEquals(new int[] { 1, 14 }, tree.getNags(e5));
+        /* A comment after a variation belongs to the move the variation replaces */
+        assertEquals("French", tree.getComment(e5));
+        assertEquals(-1, tree.getClock(e5));
+
+        var c5 = tree.getNextSibling(e5);
+        assertEquals("c5", tree.getMove(c5));
+        assertEquals("Sicilian", tree.getComment(c5));
+        var nf3 = tree.getFirstChild(c5);
+        assertEquals("c3", tree.getMove(tree.getNextSibling(nf3)));
+        assertEquals("d6", tree.getMove(tree.getFirstChild(nf3)));
+        assertEquals(4, tree.getPly(tree.getFirstChild(nf3)));
+        assertEquals("e6", tree.getMove(tree.getNextSibling(c5)));
+
+        var output = new StringWriter();
+        try (var writer = new PGNWriter(output)) {
+            writer.write(game);
+        }
+        var movetext = output.toString().substring(output.toString().indexOf("\n\n") + 2).replace('\n', ' ');
+        assertEquals("{Opening comment} 1. e4 {[%clk 0:01:02.5]} 1... e5 $1 $14 {French} (1... c5 {Sicilian} "
+                + "2. Nf3 (2. c3) 2... d6) (1... e6) 2. Nf3 Nc6 1-0  ", movetext);
+
+        /* Written again the same after reading it back */
+        var again = new StringWriter();
+        try (var writer = new PGNWriter(again)) {
+            writer.write(new PGN(output.toString()).games.get(0));
+        }
+        assertEquals(output.toString(), again.toString());
+
+        /* Games without annotations have no tree until asked for */
+        var plain = new PGN("1. e4 e5 *\n").games.get(0);
+        assertNull(plain.moveTree);
+        assertEquals(3, plain.getMoveTree().size());
+        assertNull(plain.moveTree);
+    }
+
+    private static String writeMoveText(PGNGame game) throws IOException {
+        var output = new StringWriter();
+        try (var writer = new PGNWriter(output)) {
+            writer.write(game);
+        }
+        return output.toString().substring(output.toString().indexOf("\n\n") + 2).strip().replace('\n', ' ');
+    }
+
+    @Test
+    public void testMovesEditedAfterTree() throws Exception {
+        /* Moves added after the tree was read are written after its mainline */
+        var annotated = new PGN("1. e4 {good} e5 *\n").games.get(0);
+        annotated.moves.add("Nf3");
+        assertEquals("1. e4 {good} 1... e5 2. Nf3 *", writeMoveText(annotated));
+        assertEquals(List.of("e4", "e5", "Nf3"), annotated.moveTree.getMainline());
+
+        /* A tree got for a game without annotations doesn't keep its moves */
+        var plain = new PGNGame();
+        plain.moves.add("e4");
+        plain.getMoveTree();
+        plain.moves.add("e5");
+        assertEquals("1. e4 e5 *", writeMoveText(plain));
+
+        /* Moves changed or removed can't be matched with the tree, and nothing is written */
+        annotated.moves.set(1, "c5");
+        var output = new StringWriter();
+        try (var writer = new PGNWriter(output)) {
+            assertThrows(IllegalStateException.class, () -> writer.write(annotated));
+        }
+        assertEquals("", output.toString());
+        annotated.moves.remove(2);
+        annotated.moves.set(1, "e5");
+        assertThrows(IllegalStateException.class, () -> writeMoveText(annotated));
+        assertThrows(IllegalStateException.class,
+                () -> new PGNBinaryWriter(new ByteArrayOutputStream()).write(annotated));
+    }
+
+    @Test
+    public void testValidator(@TempDir Path directory) throws Exception {
+        var data = new StringBuilder();
+        for (var i = 0; i < 10; i++) {
+            data.append("[Event \"Good\"]\n\n1. e4 e5 2. Nf3 1-0\n\n");
+            data.append("[Event \"Bad move\"]\n\n1. e4 e5 2. Ke3 1-0\n\n");
+            data.append("[Event \"Bad syntax\"]\n\n1. e4 ] e5 1-0\n[Event \"Same game\"]\n\n");
+            data.append("[Event \"Bad FEN\"]\n[SetUp \"1\"]\n[FEN \"8/8 w\"]\n\n1. e4 *\n\n");
+        }
+        var file = directory.resolve("games.pgn");
+        Files.writeString(file, data);
+
+        var executor = Executors.newFixedThreadPool(2);
+        try {
+            var validator = new PGNValidator(executor, new ParallelPGN(executor, 300));
+            var result = validator.validate(file);
+            assertEquals(40, result.games);
+            assertEquals(30, result.errors.size());
+            for (var i = 0; i < 10; i++) {
+                var badMove = result.errors.get(i * 3);
+                assertEquals(i * 4 + 1, badMove.game);
+                assertEquals(3, badMove.ply);
+                assertEquals("Ke3", badMove.move);
+                assertEquals("rnbqkbnr/pppp1ppp/8/4p3/4P3/8/PPPP1PPP/RNBQKBNR w KQkq e6 0 1", badMove.fen);
+
+                var badSyntax = result.errors.get(i * 3 + 1);
+                assertEquals(i * 4 + 2, badSyntax.game);
+                assertEquals(0, badSyntax.ply);
+                assertNull(badSyntax.move);
+
+                var badFen = result.errors.get(i * 3 + 2);
+                assertEquals(i * 4 + 3, badFen.game);
+                assertEquals(0, badFen.ply);
+            }
+
+            var games = new ArrayList<PGNGame>();
+            for (var i = 0; i < 600; i++) {
+                var game = new PGNGame();
+                game.moves.addAll(i % 100 == 7 ? List.of("e4", "e6", "e5", "e5") : List.of("e4", "e6", "e5"));
+                games.add(game);
+            }
+            result = validator.validate(games);
+            assertEquals(600, result.games);
+            assertEquals(6, result.errors.size());
+            assertEquals(507, result.errors.get(5).game);
+            assertEquals(4, result.errors.get(5).ply);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
 }
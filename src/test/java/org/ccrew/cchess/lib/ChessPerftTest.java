@@ -0,0 +1,153 @@
+package org.ccrew.cchess.lib;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+
+import org.junit.jupiter.api.Test;
+
+public class ChessPerftTest {
+
+    private static void testPerft(String fen, long... counts) {
+        ChessState state = new ChessState(fen);
+        for (int depth = 1; depth <= counts.length; depth++) {
+            assertEquals(counts[depth - 1], state.perft(depth),
+                    String.format("%s has the wrong perft count at depth %d", fen, depth));
+        }
+
+        /* Counting must leave the state as it was */
+        assertEquals(new ChessState(fen).getFen(), state.getFen());
+    }
+
+    @Test
+    public void testStandardSetup() {
+        /* Standard setup */
+        testPerft(ChessGame.STANDARD_SETUP, 20, 400, 8902, 197281);
+    }
+
+    @Test
+    public void testCastlingAndPromotions() {
+        /* "Kiwipete", lots of castling, en passant and promotions */
+        testPerft("r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1", 48, 2039, 97862);
+    }
+
+    @Test
+    public void testEnPassantPins() {
+        /* En passant which would uncover the king along the rank */
+        testPerft("8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1", 14, 191, 2812, 43238);
+    }
+
+    @Test
+    public void testChecksAndPromotions() {
+        /* Checks, promotions and lost castling rights */
+        testPerft("r3k2r/Pppp1ppp/1b3nbN/nP6/BBP1P3/q4N2/Pp1P2PP/R2Q1RK1 w kq - 0 1", 6, 264, 9467);
+        testPerft("r2q1rk1/pP1p2pp/Q4n2/bbp1p3/Np6/1B3NBn/pPPP1PPP/R3K2R b KQ - 0 1", 6, 264, 9467);
+    }
+
+    @Test
+    public void testPromotionWithCheck() {
+        /* Promotion giving check */
+        testPerft("rnbq1k1r/pp1Pbppp/2p5/8/2B5/8/PPP1NnPP/RNBQK2R w KQ - 1 8", 44, 1486, 62379);
+    }
+
+    @Test
+    public void testMiddlegame() {
+        /* Middlegame */
+        testPerft("r4rk1/1pp1qppp/p1np1n2/2b1p1B1/2B1P1b1/P1NP1N2/1PP1QPPP/R4RK1 w - - 0 10", 46, 2079, 89890);
+    }
+
+    @Test
+    public void testParallelPerft() {
+        /* Parallel counts match, including when the table is shared between runs */
+        var perft = new ParallelPerft();
+        assertEquals(4085603, perft.perft(
+                new ChessState("r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1"), 4));
+        assertEquals(197281, perft.perft(new ChessState(ChessGame.STANDARD_SETUP), 4));
+        assertEquals(1, perft.perft(new ChessState(ChessGame.STANDARD_SETUP), 0));
+        assertEquals(20, perft.perft(new ChessState(ChessGame.STANDARD_SETUP), 1));
+    }
+
+    @Test
+    public void testDivide() {
+        /* Divide adds up to the perft count */
+        ChessState state = new ChessState(ChessGame.STANDARD_SETUP);
+        var counts = state.divide(3);
+        assertEquals(20, counts.size());
+        assertEquals(600L, counts.get("e2e4"));
+        assertEquals(8902L, counts.values().stream().mapToLong(Long::longValue).sum());
+    }
+
+    @Test
+    public void testEPD() throws Exception {
+        var records = EPDReader.read(new StringReader(String.join("\n",
+                "rnbqkbnr/pppppppp/8/8/4P3/8/PPPP1PPP/RNBQKBNR b KQkq e3 bm e5 c5; am f6;"
+                        + " id \"open; 1\"; c0 \"King's pawn\"; hmvc 0; fmvn 1;",
+                "", "# Perft suite", "4k3/8/8/8/8/8/8/4K2R w K - 0 1 ;D1 15 ;D2 66 ;D3 1197",
+                "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - ;D1 48 ;D2 2039",
+                "8/8 w - - ;D1 1", "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - ;D1 14 ;D2 190",
+                "4k3/8/8/8/8/8/8/4K2R w K - ;D1 15 ;D2 many")));
+        assertEquals(6, records.size());
+        var first = records.get(0);
+        assertEquals(1, first.line);
+        assertEquals("rnbqkbnr/pppppppp/8/8/4P3/8/PPPP1PPP/RNBQKBNR b KQkq e3", first.fen);
+        assertEquals(List.of("e5", "c5"), first.getBestMoves());
+        assertEquals(List.of("f6"), first.getAvoidMoves());
+        assertEquals("open; 1", first.getId());
+        assertEquals("King's pawn", first.getComment());
+        assertEquals(-1, first.getPerftCount(1));
+        assertEquals("4k3/8/8/8/8/8/8/4K2R w K - 0 1", records.get(1).fen);
+        assertEquals(1197, records.get(1).getPerftCount(3));
+        assertEquals(first.toString(), EPDReader.parse(first.toString(), 1).toString());
+
+        var state = new ChessState(ChessGame.STANDARD_SETUP);
+        first.setUp(state);
+        assertEquals("rnbqkbnr/pppppppp/8/8/4P3/8/PPPP1PPP/RNBQKBNR b KQkq e3 0 1", state.getFen());
+
+        var executor = Executors.newFixedThreadPool(2);
+        try {
+            var runner = new EPDRunner(executor);
+            var result = runner.run(records, EPDRunner.perft(6));
+            assertEquals(Arrays.asList(null, null, null, null, "D2 190 != 191", null), result.values);
+            assertEquals(2, result.failures.size());
+            assertEquals(3, result.failures.get(0).record);
+            assertEquals(6, result.failures.get(0).line);
+
+            /* An evaluator throwing only fails its own record */
+            assertEquals(5, result.failures.get(1).record);
+            assertEquals(8, result.failures.get(1).line);
+            assertEquals("java.lang.NumberFormatException: For input string: \"many\"",
+                    result.failures.get(1).message);
+
+            /*
+             * Evaluators are given a state they can change. Records share it within a
+             * batch, so each has to be set up afresh whatever the one before played.
+             */
+            var positions = runner.run(records, (record, position) -> {
+                var fen = position.getFen();
+                var moves = new int[ChessState.MAX_MOVES];
+                for (var ply = 0; ply < 3 && position.getLegalMoves(moves) > 0; ply++) {
+                    assertTrue(position.move(moves[0]));
+                }
+                return fen;
+            });
+            for (var i = 0; i < records.size(); i++) {
+                if (i == 3) {
+                    assertNull(positions.values.get(i));
+                    continue;
+                }
+                var fresh = new ChessState(ChessGame.STANDARD_SETUP);
+                records.get(i).setUp(fresh);
+                assertEquals(fresh.getFen(), positions.values.get(i));
+            }
+            assertEquals(1, positions.failures.size());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+}